@@ -0,0 +1,120 @@
+package io.github.tontu89.debugbenchmarks;
+
+import io.github.tontu89.debugserverlib.model.MessageResponse;
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
+import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.SOCKET_BUFFER_SIZE_IN_BYTE;
+
+/**
+ * Frames through {@link DebugUtils#writeMessage(DataOutputStream, ServerClientMessage, WireFormat)} and
+ * {@link DebugUtils#readMessage(DataInputStream)} over a loopback socket, with the buffered streams both ends of the
+ * tunnel use. Each operation sends a response carrying {@code payloadSize} bytes and waits for the small answer the
+ * other end sends once it read the frame, bytes per second is the score times the payload size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+    @Param({"JSON", "BINARY"})
+    public WireFormat wireFormat;
+
+    @Param({"1024", "65536", "1048576"})
+    public int payloadSize;
+
+    private ServerSocket serverSocket;
+    private Socket socket;
+    private Socket peerSocket;
+    private Thread peer;
+    private DataOutputStream dos;
+    private DataInputStream dis;
+    private ServerClientMessage message;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+        this.peerSocket = this.serverSocket.accept();
+
+        this.dos = outputOf(this.socket);
+        this.dis = inputOf(this.socket);
+
+        byte[] payload = new byte[this.payloadSize];
+        new Random(1).nextBytes(payload);
+        this.message = ServerClientMessage.builder()
+                .id("C-1")
+                .type(ServerClientMessage.Type.RESPONSE)
+                .response(MessageResponse.builder().status(200).data(payload).build())
+                .build();
+
+        DataOutputStream peerDos = outputOf(this.peerSocket);
+        DataInputStream peerDis = inputOf(this.peerSocket);
+
+        this.peer = new Thread(() -> {
+            try {
+                while (true) {
+                    ServerClientMessage received = DebugUtils.readMessage(peerDis);
+                    DebugUtils.writeMessage(peerDos, ServerClientMessage.builder()
+                            .id(received.getId())
+                            .type(ServerClientMessage.Type.RESPONSE)
+                            .response(MessageResponse.builder().status(200).build())
+                            .build(), this.wireFormat);
+                }
+            } catch (IOException e) {
+                // closed by tear down
+            }
+        }, "loopback-peer");
+        this.peer.setDaemon(true);
+        this.peer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        this.socket.close();
+        this.peerSocket.close();
+        this.serverSocket.close();
+        this.peer.join();
+    }
+
+    @Benchmark
+    public ServerClientMessage sendAndWaitAnswer() throws IOException {
+        DebugUtils.writeMessage(this.dos, this.message, this.wireFormat);
+        return DebugUtils.readMessage(this.dis);
+    }
+
+    private static DataOutputStream outputOf(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), SOCKET_BUFFER_SIZE_IN_BYTE));
+    }
+
+    private static DataInputStream inputOf(Socket socket) throws IOException {
+        return new DataInputStream(new BufferedInputStream(socket.getInputStream(), SOCKET_BUFFER_SIZE_IN_BYTE));
+    }
+}
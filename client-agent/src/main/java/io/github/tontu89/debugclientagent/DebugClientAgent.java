@@ -6,6 +6,7 @@ import io.github.tontu89.debugclientagent.proxy.ProxyServer;
 import io.github.tontu89.debugclientagent.utils.AppConfigHelper;
 import io.github.tontu89.debugclientagent.utils.DebugServerHelper;
 import io.github.tontu89.debugclientagent.utils.SecurityUtils;
+import io.github.tontu89.debugserverlib.transport.MessageCodecs;
 import javassist.CannotCompileException;
 import javassist.ClassPool;
 import javassist.CtClass;
@@ -56,7 +57,13 @@ public class DebugClientAgent {
                             DebugServerCommunication debugServer = new DebugServerCommunication(appConfig.getClientName(),
                                     serverConfig.getServerInetAddress().getAddress().getHostAddress(),
                                     serverConfig.getServerInetAddress().getPort(),
-                                    appConfig.getLocal().getWebUrl());
+                                    appConfig.getLocal().getWebUrl(),
+                                    appConfig.getLocal().getWireFormat(),
+                                    appConfig.getLocal().isCompression(),
+                                    MessageCodecs.byName(appConfig.getLocal().getCodec()),
+                                    appConfig.getLocal().getFlushMaxLatencyMicros(),
+                                    appConfig.getLocal().getConnections(),
+                                    appConfig.getLocal().getExecutionMode());
 
                             downloadFiles(appConfigHelper, serverName, debugServer);
                             applyEnvironment(appConfigHelper, serverName, debugServer);
@@ -74,7 +81,7 @@ public class DebugClientAgent {
                     if (!servers.isEmpty()) {
                         DebugServerHelper debugServerHelper = new DebugServerHelper(servers);
 
-                        ProxyServer proxyServer = new ProxyServer(appConfig.getLocal().getProxyPort(), debugServerHelper);
+                        ProxyServer proxyServer = new ProxyServer(appConfig.getLocal().getProxyPort(), debugServerHelper, appConfig.getLocal().getExecutionMode());
                         proxyServer.start();
 
                         synchronized (run) {
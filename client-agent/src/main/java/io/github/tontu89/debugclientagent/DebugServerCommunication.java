@@ -2,47 +2,87 @@ package io.github.tontu89.debugclientagent;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import io.github.tontu89.debugserverlib.model.DownloadFileRequest;
+import io.github.tontu89.debugserverlib.model.FileSyncRequest;
+import io.github.tontu89.debugserverlib.model.FileSyncResponse;
 import io.github.tontu89.debugserverlib.model.FilterRequestMatchPattern;
 import io.github.tontu89.debugserverlib.model.HttpRequestInfo;
 import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
 import io.github.tontu89.debugserverlib.model.MessageRequest;
 import io.github.tontu89.debugserverlib.model.MessageResponse;
 import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import io.github.tontu89.debugserverlib.transport.MessageCodec;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
 import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import io.github.tontu89.debugserverlib.utils.FileSyncUtils;
+import io.github.tontu89.debugserverlib.utils.FileUtils;
 import io.github.tontu89.debugserverlib.utils.HttpUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.httpclient.HttpStatus;
 
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_FILE_SYNC;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_LANES;
+import static io.github.tontu89.debugserverlib.utils.Constants.FILE_SYNC_BLOCK_SIZE_IN_BYTE;
+import static io.github.tontu89.debugserverlib.utils.Constants.FILE_SYNC_MAX_FILE_SIZE_IN_BYTE;
+import static io.github.tontu89.debugserverlib.utils.Constants.HELLO_TIME_OUT_MS;
+
 @Slf4j
 public class DebugServerCommunication implements AutoCloseable {
+    private static final String PART_FILE_SUFFIX = ".part";
+
     private final int debugServerPort;
     private final String clientName;
     private final String debugServerIp;
     private final String localWebServerAddress;
+    private final List<SocketCommunication> lanes;
+    private final ExecutionMode executionMode;
 
     private SocketCommunication socketCommunication;
 
-    public DebugServerCommunication(String clientName, String debugServerIp, int debugServerPort, String localWebServerAddress) throws Exception {
+    /**
+     * @param connections sockets to open to the server, the first one carries control messages and the others, if
+     *                    the server supports them, downloads and HTTP traffic
+     */
+    public DebugServerCommunication(String clientName, String debugServerIp, int debugServerPort, String localWebServerAddress, WireFormat wireFormat, boolean compression, MessageCodec codec, int flushMaxLatencyMicros, int connections, ExecutionMode executionMode) throws Exception {
         this.clientName = clientName;
         this.debugServerIp = debugServerIp;
         this.debugServerPort = debugServerPort;
         this.localWebServerAddress = localWebServerAddress.endsWith("/") ? (localWebServerAddress.substring(0, localWebServerAddress.length() - 1)) : localWebServerAddress;
-        this.socketCommunication = new SocketCommunication(this.debugServerIp, this.debugServerPort, (e) -> this.serverRequestHandler(e));
-        this.assignClientName();
+        this.lanes = new CopyOnWriteArrayList<>();
+        this.executionMode = executionMode;
+        this.socketCommunication = new SocketCommunication(this.debugServerIp, this.debugServerPort, wireFormat, compression, codec, flushMaxLatencyMicros, executionMode, this::serverRequestHandler);
+
+        String sessionId = this.assignClientName();
+
+        for (int i = 1; i < connections && sessionId != null && this.socketCommunication.hasServerCapability(CAPABILITY_LANES); ++i) {
+            if (!this.openLane(sessionId, wireFormat, compression, codec, flushMaxLatencyMicros)) {
+                break;
+            }
+        }
     }
 
     public Map<String, String> getServerEnvironments() throws Exception {
@@ -55,7 +95,7 @@ public class DebugServerCommunication implements AutoCloseable {
             if (responseMessage.getResponse().getStatus() != HttpStatus.SC_OK) {
                 throw new Exception("Cannot get server environment");
             }
-            return DebugUtils.base64StringToObject(responseMessage.getResponse().getDataBase64(), new TypeReference<TreeMap<String, String>>() {});
+            return responseMessage.getResponse().decodeData(new TypeReference<TreeMap<String, String>>() {});
         } catch (Throwable e) {
             log.error("DebugAgent: exception " + e.getMessage(), e);
             this.socketCommunication.close();
@@ -75,7 +115,7 @@ public class DebugServerCommunication implements AutoCloseable {
                 throw new Exception("Cannot get server environment");
             }
 
-            return DebugUtils.base64StringToObject(responseMessage.getResponse().getDataBase64(), new TypeReference<TreeMap<String, String>>() {});
+            return responseMessage.getResponse().decodeData(new TypeReference<TreeMap<String, String>>() {});
         } catch (Throwable e) {
             log.error("DebugAgent: exception " + e.getMessage(), e);
             this.socketCommunication.close();
@@ -108,26 +148,66 @@ public class DebugServerCommunication implements AutoCloseable {
             }
         }
 
-        ServerClientMessage responseMessage = this.socketCommunication.sendMessage(ServerClientMessage.builder()
+        if (targetFile.isFile() && targetFile.length() <= FILE_SYNC_MAX_FILE_SIZE_IN_BYTE && this.socketCommunication.hasServerCapability(CAPABILITY_FILE_SYNC)) {
+            try {
+                if (this.syncFile(sourceFilePath, targetFile.toPath())) {
+                    return;
+                }
+            } catch (Exception e) {
+                log.error("DebugAgent: Sync file " + sourceFilePath + " failed, download it whole: " + e.getMessage(), e);
+            }
+        }
+
+        // a download cut short, e.g. by a dropped port-forward, carries on from what is already on disk as long as the
+        // server file still starts with the same bytes
+        Path partFile = Paths.get(targetFilePath + PART_FILE_SUFFIX);
+        long offset = Files.exists(partFile) ? Files.size(partFile) : 0;
+        Object downloadRequest = offset > 0 ? DownloadFileRequest.builder()
+                .filePath(sourceFilePath)
+                .offset(offset)
+                .offsetSha256(FileUtils.sha256(partFile, offset))
+                .build() : sourceFilePath;
+        SocketCommunication lane = this.bulkLane();
+
+        ServerClientMessage responseMessage = lane.sendMessage(ServerClientMessage.builder()
                 .type(ServerClientMessage.Type.REQUEST)
                 .request(MessageRequest.builder()
                         .command(MessageRequest.Command.SERVER_DOWNLOAD_FILE)
-                        .dataBase64(DebugUtils.objectToBase64String(sourceFilePath))
+                        .data(DebugUtils.objectToBytes(downloadRequest, lane.getCodec()))
                         .build())
                 .build(), true);
         MessageResponse responseData = responseMessage.getResponse();
+        boolean resumed = responseData.getStatus() == HttpStatus.SC_PARTIAL_CONTENT;
 
-        byte[] fileContent = Base64.getDecoder().decode(responseData.getDataBase64());
+        if (responseData.getStatus() != HttpStatus.SC_OK && !resumed) {
+            byte[] error = responseData.getData();
+            throw new Exception(String.format("DebugAgent: Download file %s has error: %s", sourceFilePath, error == null ? null : new String(error)));
+        }
 
-        if (responseData.getStatus() == 200 && fileContent != null) {
-            File file = new File(targetFilePath);
-            file.delete();
-            Files.write(file.toPath(), fileContent, StandardOpenOption.CREATE);
-        } else {
-            throw new Exception(String.format("DebugAgent: Download file %s has error: %s", sourceFilePath, fileContent == null ? null : new String(fileContent)));
+        if (resumed) {
+            log.info("DebugAgent: Resume download of {} from byte {}", sourceFilePath, offset);
         }
-    }
 
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // the server sends the whole file again if it cannot resume, e.g. it got shorter
+            channel.truncate(resumed ? offset : 0);
+            channel.position(resumed ? offset : 0);
+
+            if (responseData.getDataStream() != null) {
+                // large file, written to disk chunk by chunk as it arrives
+                try (InputStream fileStream = responseData.getDataStream()) {
+                    fileStream.transferTo(Channels.newOutputStream(channel));
+                }
+            } else if (responseData.getData() != null) {
+                ByteBuffer fileContent = ByteBuffer.wrap(responseData.getData());
+                while (fileContent.hasRemaining()) {
+                    channel.write(fileContent);
+                }
+            }
+        }
+
+        moveIntoPlace(partFile, targetFile.toPath());
+    }
 
     public void addRequestFilter(FilterRequestMatchPattern filterRequestMatchPattern) throws Exception {
         this.addRequestFilter(new ArrayList<>(){{
@@ -140,7 +220,7 @@ public class DebugServerCommunication implements AutoCloseable {
                 .type(ServerClientMessage.Type.REQUEST)
                 .request(MessageRequest.builder()
                         .command(MessageRequest.Command.SERVER_ADD_FILTER_PATTERN)
-                        .dataBase64(DebugUtils.objectToBase64String(filterRequestMatchPatterns))
+                        .data(DebugUtils.objectToBytes(filterRequestMatchPatterns, this.socketCommunication.getCodec()))
                         .build())
                 .build(), true);
 
@@ -153,23 +233,26 @@ public class DebugServerCommunication implements AutoCloseable {
 
     public HttpResponseInfo forwardRequestToServer(HttpRequestInfo clientHttpResponseInfo) throws JsonProcessingException {
         try {
+            SocketCommunication lane = this.bulkLane();
             ServerClientMessage messageRequest = ServerClientMessage.builder()
                     .type(ServerClientMessage.Type.REQUEST)
                     .request(MessageRequest.builder()
                             .command(MessageRequest.Command.SERVER_EXECUTE_HTTP_REQUEST)
-                            .dataBase64(DebugUtils.objectToBase64String(clientHttpResponseInfo))
+                            .data(DebugUtils.objectToBytes(clientHttpResponseInfo, lane.getCodec()))
                             .build())
                     .build();
 
             log.debug("DebugAgent: Forward HTTP Request to debug server: {}", clientHttpResponseInfo);
             long startTime = System.currentTimeMillis();
 
-            ServerClientMessage messageResponse = this.socketCommunication.sendMessage(messageRequest, true);
+            ServerClientMessage messageResponse = lane.sendMessage(messageRequest, true);
 
             log.debug("DebugAgent: Received response in {}ms from server: {}", System.currentTimeMillis() - startTime, messageResponse);
 
             if (messageResponse.getResponse().getStatus() == HttpStatus.SC_OK) {
-                return DebugUtils.base64StringToObject(messageResponse.getResponse().getDataBase64(), HttpResponseInfo.class);
+                HttpResponseInfo responseInfo = messageResponse.getResponse().decodeData(HttpResponseInfo.class);
+                responseInfo.setPayloadStream(messageResponse.getResponse().getDataStream());
+                return responseInfo;
             } else {
                 log.error("DebugAgent: Something wrong happened when forward request {}", clientHttpResponseInfo);
                 return HttpResponseInfo.builder().httpStatus(500).build();
@@ -182,6 +265,7 @@ public class DebugServerCommunication implements AutoCloseable {
 
     @Override
     public void close() {
+        this.lanes.forEach(SocketCommunication::close);
         this.socketCommunication.close();
     }
 
@@ -193,31 +277,31 @@ public class DebugServerCommunication implements AutoCloseable {
         return this.socketCommunication.isRunning();
     }
 
-    private void serverRequestHandler(ServerClientMessage message) {
+    private void serverRequestHandler(SocketCommunication lane, ServerClientMessage message) {
         try {
             if (message.getRequest().getCommand() == MessageRequest.Command.CLIENT_EXECUTE_HTTP_REQUEST) {
-                HttpRequestInfo serverRequestInfo = DebugUtils.base64StringToObject(message.getRequest().getDataBase64(), HttpRequestInfo.class);
+                HttpRequestInfo serverRequestInfo = message.getRequest().decodeData(HttpRequestInfo.class);
                 AtomicReference<HttpURLConnection> connection = new AtomicReference<>();
 
                 log.debug("DebugAgent: Start Process Server Request {}", serverRequestInfo);
 
-                HttpResponseInfo clientResponseInfo = HttpUtils.executeHttpRequestByRest(
+                HttpUtils.streamHttpRequestByRest(
                         this.localWebServerAddress,
                         serverRequestInfo.getUri(),
                         serverRequestInfo.getMethod(),
                         serverRequestInfo.getHeaders(),
-                        serverRequestInfo.getPayload());
-
-                ServerClientMessage clientResponseMessage = ServerClientMessage.builder()
-                        .id(message.getId())
-                        .type(ServerClientMessage.Type.RESPONSE)
-                        .response(MessageResponse.builder()
-                                .status(200)
-                                .dataBase64(DebugUtils.objectToBase64String(clientResponseInfo))
-                                .build())
-                        .build();
-
-                this.socketCommunication.sendMessage(clientResponseMessage, false);
+                        serverRequestInfo.getBody(),
+                        clientResponseInfo -> {
+                            ServerClientMessage clientResponseMessage = ServerClientMessage.builder()
+                                    .id(message.getId())
+                                    .type(ServerClientMessage.Type.RESPONSE)
+                                    .response(MessageResponse.builder()
+                                            .status(200)
+                                            .build())
+                                    .build();
+
+                            DebugUtils.sendHttpResponseInfo(clientResponseMessage, clientResponseInfo, lane.getWireFormat(), lane.getCodec(), lane.getStreamAssembler(), lane::sendMessagePaced);
+                        });
 
             } else if (message.getRequest().getCommand() == MessageRequest.Command.HEART_BEAT) {
                 ServerClientMessage clientResponseMessage = ServerClientMessage.builder()
@@ -228,7 +312,7 @@ public class DebugServerCommunication implements AutoCloseable {
                                 .build())
                         .build();
 
-                this.socketCommunication.sendMessage(clientResponseMessage, false);
+                lane.sendMessage(clientResponseMessage, false);
             } else {
                 throw new UnsupportedOperationException(message.toString());
             }
@@ -237,22 +321,159 @@ public class DebugServerCommunication implements AutoCloseable {
         }
     }
 
-    private void assignClientName() throws Exception {
+    /**
+     * Sends block checksums of the local copy, then rebuilds the file from its unchanged blocks and what the server
+     * sends back. An unchanged file costs one round trip and no write.
+     *
+     * @return false if the server cannot sync the file, the caller then downloads it whole
+     */
+    private boolean syncFile(String sourceFilePath, Path targetFile) throws Exception {
+        FileSyncRequest syncRequest = FileSyncRequest.builder()
+                .filePath(sourceFilePath)
+                .sha256(FileSyncUtils.sha256(targetFile))
+                .blockSize(FILE_SYNC_BLOCK_SIZE_IN_BYTE)
+                .blocks(FileSyncUtils.blockChecksums(targetFile, FILE_SYNC_BLOCK_SIZE_IN_BYTE))
+                .build();
+        SocketCommunication lane = this.bulkLane();
+
+        ServerClientMessage responseMessage = lane.sendMessage(ServerClientMessage.builder()
+                .type(ServerClientMessage.Type.REQUEST)
+                .request(MessageRequest.builder()
+                        .command(MessageRequest.Command.SERVER_SYNC_FILE)
+                        .data(DebugUtils.objectToBytes(syncRequest, lane.getCodec()))
+                        .build())
+                .build(), true);
+        MessageResponse responseData = responseMessage.getResponse();
+
+        if (responseData.getStatus() != HttpStatus.SC_OK) {
+            log.info("DebugAgent: Cannot sync file {}, status {}", sourceFilePath, responseData.getStatus());
+            return false;
+        }
+
+        FileSyncResponse syncResponse = responseData.decodeData(FileSyncResponse.class);
+
+        if (syncResponse.isUnchanged()) {
+            log.info("DebugAgent: File {} is up to date", sourceFilePath);
+            return true;
+        }
+
+        Path partFile = Paths.get(targetFile + PART_FILE_SUFFIX);
+
+        try (FileChannel localChannel = FileChannel.open(targetFile, StandardOpenOption.READ);
+             FileChannel partChannel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            for (FileSyncResponse.Segment segment : syncResponse.getSegments()) {
+                if (segment.getData() != null) {
+                    ByteBuffer literal = ByteBuffer.wrap(segment.getData());
+                    while (literal.hasRemaining()) {
+                        partChannel.write(literal);
+                    }
+                } else {
+                    long position = (long) segment.getBlockIndex() * FILE_SYNC_BLOCK_SIZE_IN_BYTE;
+                    long end = position + (long) segment.getBlockCount() * FILE_SYNC_BLOCK_SIZE_IN_BYTE;
+
+                    while (position < end) {
+                        position += localChannel.transferTo(position, end - position, partChannel);
+                    }
+                }
+            }
+        }
+
+        if (!syncResponse.getSha256().equals(FileSyncUtils.sha256(partFile))) {
+            log.error("DebugAgent: Synced file {} does not match the server file", sourceFilePath);
+            Files.delete(partFile);
+            return false;
+        }
+
+        log.info("DebugAgent: Synced file {}, {} segments", sourceFilePath, syncResponse.getSegments().size());
+        moveIntoPlace(partFile, targetFile);
+        return true;
+    }
+
+    private static void moveIntoPlace(Path partFile, Path targetFile) throws IOException {
+        try {
+            Files.move(partFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return id of this client on the server, for further connections to join it, null if the server is older than lanes
+     */
+    private String assignClientName() throws Exception {
         ServerClientMessage responseMessage = this.socketCommunication.sendMessage(ServerClientMessage.builder()
                 .type(ServerClientMessage.Type.REQUEST)
                 .request(MessageRequest.builder()
                         .command(MessageRequest.Command.SERVER_SET_CLIENT_NAME)
-                        .dataBase64(DebugUtils.objectToBase64String(this.clientName))
+                        .data(DebugUtils.objectToBytes(this.clientName, this.socketCommunication.getCodec()))
                         .build())
                 .build(), true);
         MessageResponse responseData = responseMessage.getResponse();
 
-        String reason = Optional.ofNullable(responseData.getDataBase64()).map(d -> new String(Base64.getDecoder().decode(d))).orElse(null);
+        String reason = Optional.ofNullable(responseData.getData()).map(d -> new String(d)).orElse(null);
 
         if (responseData.getStatus() != 200) {
 //            throw new Exception("Cannot set client name with error [{}]" + reason);
             log.error("Cannot set client name with error [{}]" + reason);
+            return null;
+        }
+
+        return responseData.decodeData(String.class);
+    }
+
+    /**
+     * Opens one more connection to the server and joins it to this client as a lane.
+     *
+     * @return false if the lane could not be opened, the client goes on with the connections it has
+     */
+    private boolean openLane(String sessionId, WireFormat wireFormat, boolean compression, MessageCodec codec, int flushMaxLatencyMicros) {
+        SocketCommunication lane = null;
+
+        try {
+            lane = new SocketCommunication(this.debugServerIp, this.debugServerPort, wireFormat, compression, codec, flushMaxLatencyMicros, this.executionMode, this::serverRequestHandler);
+
+            ServerClientMessage responseMessage = lane.sendMessage(ServerClientMessage.builder()
+                    .type(ServerClientMessage.Type.REQUEST)
+                    .request(MessageRequest.builder()
+                            .command(MessageRequest.Command.SERVER_JOIN_SESSION)
+                            .data(DebugUtils.objectToBytes(sessionId, lane.getCodec()))
+                            .build())
+                    .build(), HELLO_TIME_OUT_MS);
+
+            if (responseMessage != null && responseMessage.getResponse().getStatus() == HttpStatus.SC_OK) {
+                this.lanes.add(lane);
+                log.info("DebugAgent: Opened lane {} to debug server {}:{}", this.lanes.size(), this.debugServerIp, this.debugServerPort);
+                return true;
+            }
+
+            log.error("DebugAgent: Debug server refused lane, status {}", responseMessage == null ? null : responseMessage.getResponse().getStatus());
+        } catch (Throwable e) {
+            log.error("DebugAgent: Cannot open lane to debug server: " + e.getMessage(), e);
+        }
+
+        if (lane != null) {
+            lane.close();
+        }
+        return false;
+    }
+
+    /**
+     * @return the least busy lane for a request that may move a lot of data, the control connection if there is none
+     */
+    private SocketCommunication bulkLane() {
+        SocketCommunication next = this.socketCommunication;
+        int nextLoad = Integer.MAX_VALUE;
+
+        for (SocketCommunication lane : this.lanes) {
+            int load = lane.getLoad();
+
+            if (lane.isRunning() && load < nextLoad) {
+                next = lane;
+                nextLoad = load;
+            }
         }
+        return next;
     }
 
 }
@@ -2,5 +2,8 @@ package io.github.tontu89.debugclientagent;
 
 @FunctionalInterface
 public interface ServerResponseConsumer<T> {
-    void action(T t);
+    /**
+     * @param connection the message came in through, an answer goes back the same way
+     */
+    void action(SocketCommunication connection, T t);
 }
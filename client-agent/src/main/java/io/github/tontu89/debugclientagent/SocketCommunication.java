@@ -1,11 +1,29 @@
 package io.github.tontu89.debugclientagent;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import io.github.tontu89.debugserverlib.model.MessageRequest;
 import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.transport.CoalescingSender;
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import io.github.tontu89.debugserverlib.transport.FlowControlException;
+import io.github.tontu89.debugserverlib.transport.FlowControlPolicy;
+import io.github.tontu89.debugserverlib.transport.FrameCompression;
+import io.github.tontu89.debugserverlib.transport.FramePriority;
+import io.github.tontu89.debugserverlib.transport.MessageCodec;
+import io.github.tontu89.debugserverlib.transport.MessageCodecs;
+import io.github.tontu89.debugserverlib.transport.OutboundWatermark;
+import io.github.tontu89.debugserverlib.transport.PendingRequests;
+import io.github.tontu89.debugserverlib.transport.PriorityFrameQueue;
+import io.github.tontu89.debugserverlib.transport.StreamAssembler;
+import io.github.tontu89.debugserverlib.transport.TunnelBudget;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
 import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import io.github.tontu89.debugserverlib.utils.ExecutorUtils;
 import lombok.extern.slf4j.Slf4j;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -14,94 +32,213 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
-import static io.github.tontu89.debugserverlib.utils.Constants.POLL_QUEUE_TIMEOUT_MS;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_DEFLATE;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_FILE_SYNC;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_FLOW_CONTROL;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_LANES;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_MULTI_VALUE_HEADERS;
+import static io.github.tontu89.debugserverlib.utils.Constants.CAPABILITY_RAW_BODY;
+import static io.github.tontu89.debugserverlib.utils.Constants.CONNECTION_WINDOW_IN_BYTE;
+import static io.github.tontu89.debugserverlib.utils.Constants.FLOW_CONTROL_BLOCK_TIME_OUT_MS;
+import static io.github.tontu89.debugserverlib.utils.Constants.COMPRESSION_THRESHOLD_IN_BYTE;
+import static io.github.tontu89.debugserverlib.utils.Constants.HELLO_TIME_OUT_MS;
+import static io.github.tontu89.debugserverlib.utils.Constants.MESSAGE_QUEUE_CAPACITY;
+import static io.github.tontu89.debugserverlib.utils.Constants.OUTBOUND_MAX_PASSED_OVER;
+import static io.github.tontu89.debugserverlib.utils.Constants.SOCKET_BUFFER_SIZE_IN_BYTE;
+import static io.github.tontu89.debugserverlib.utils.Constants.STREAM_MAX_PENDING_IN_BYTE;
 
 
 @Slf4j
 public class SocketCommunication implements AutoCloseable {
     private final int port;
-    private final BlockingQueue<ServerClientMessage> messageToServerQueue;
+    private final PriorityFrameQueue<ServerClientMessage> messageToServerQueue;
     private final Executor executor;
     private final List<Future<Void>> serverMessageProcessingFutureList;
-    private final Map<String, String> waitingServerResponseIdList;
-    private final Map<String, ServerClientMessage> serverResponseResultList;
+    private final PendingRequests pendingRequests;
     private final ServerResponseConsumer<ServerClientMessage> serverRequestHandler;
     private final String ip;
-
+    private final StreamAssembler streamAssembler;
+    private final OutboundWatermark outboundWatermark;
+    private final WireFormat wireFormat;
+    private final int flushMaxLatencyMicros;
+
+    private volatile int compressionThreshold;
+    private volatile List<String> serverCapabilities;
+    private volatile MessageCodec codec;
     private Boolean stop;
     private DataOutputStream dos;
     private DataInputStream dis;
     private Socket clientSocket;
 
 
-    public SocketCommunication(String ip, int port, ServerResponseConsumer<ServerClientMessage> serverRequestHandler) throws IOException {
+    public SocketCommunication(String ip, int port, WireFormat wireFormat, boolean compression, MessageCodec preferredCodec, int flushMaxLatencyMicros, ExecutionMode executionMode, ServerResponseConsumer<ServerClientMessage> serverRequestHandler) throws IOException {
         this.ip = ip;
         this.port = port;
+        this.wireFormat = wireFormat == null ? WireFormat.BINARY : wireFormat;
         this.serverRequestHandler = serverRequestHandler;
-        this.waitingServerResponseIdList = new ConcurrentHashMap<>();
-        this.serverResponseResultList = new ConcurrentHashMap<>();
-        this.executor = Executors.newCachedThreadPool();
+        this.flushMaxLatencyMicros = flushMaxLatencyMicros;
+        this.pendingRequests = new PendingRequests();
+        this.executor = ExecutorUtils.newCachedExecutor(executionMode, "debug-agent");
         this.serverMessageProcessingFutureList = new ArrayList<>();
-        this.messageToServerQueue = new LinkedBlockingQueue<>();
+        this.messageToServerQueue = new PriorityFrameQueue<>(MESSAGE_QUEUE_CAPACITY, OUTBOUND_MAX_PASSED_OVER, FramePriority::of);
+        this.streamAssembler = new StreamAssembler(this::send);
+        this.outboundWatermark = new TunnelBudget(Long.MAX_VALUE, CONNECTION_WINDOW_IN_BYTE, FlowControlPolicy.BLOCK, FLOW_CONTROL_BLOCK_TIME_OUT_MS).newWatermark();
+        this.compressionThreshold = FrameCompression.NO_COMPRESSION;
+        this.serverCapabilities = List.of();
+        this.codec = MessageCodecs.LEGACY_JSON;
         this.stop = false;
 
         this.startServerConnection();
         this.startServerMessageProcessing();
         this.startSendingMessageToServer();
+
+        if (this.wireFormat == WireFormat.BINARY) {
+            this.negotiateCapabilities(compression, preferredCodec);
+        }
     }
 
     public ServerClientMessage sendMessage(ServerClientMessage message, boolean needToWaitResponse) {
-        if (this.stop) {
+        return this.sendMessage(message, needToWaitResponse ? Long.MAX_VALUE : 0);
+    }
+
+    /**
+     * @param timeoutInMs how long to wait for the server answer, 0 to not wait at all
+     * @return the server answer, null if it did not come in time
+     */
+    public ServerClientMessage sendMessage(ServerClientMessage message, long timeoutInMs) {
+        if (timeoutInMs <= 0) {
+            this.send(message);
             return null;
-        } else {
-            String messageId = null;
-
-            if (message.getId() == null) {
-                messageId = "CLIENT-" + UUID.randomUUID();
-                message.setId(messageId);
-            } else {
-                messageId = message.getId();
+        }
+
+        CompletableFuture<ServerClientMessage> response = this.sendMessageAsync(message, timeoutInMs);
+
+        try {
+            log.info("DebugAgent: Message ID {}: Sleeping to wait server processing", message.getId());
+            ServerClientMessage result = response.get();
+            log.info("DebugAgent: Message ID {}: Has result from server", message.getId());
+            return result;
+        } catch (InterruptedException e) {
+            this.pendingRequests.cancel(message.getId());
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            // timed out or connection closed
+        }
+
+        log.info("DebugAgent: Message ID {}: No result from server", message.getId());
+        return null;
+    }
+
+    /**
+     * Sends the message and returns at once, the future completes on the reader thread with the server answer, or
+     * fails with a {@link java.util.concurrent.TimeoutException} or when the connection closes.
+     *
+     * @param timeoutInMs {@link Long#MAX_VALUE} to wait as long as the connection is open
+     */
+    public CompletableFuture<ServerClientMessage> sendMessageAsync(ServerClientMessage message, long timeoutInMs) {
+        if (message.getId() == null) {
+            message.setId("CLIENT-" + UUID.randomUUID());
+        }
+
+        CompletableFuture<ServerClientMessage> response = this.pendingRequests.register(message.getId(), timeoutInMs);
+
+        try {
+            if (!this.send(message)) {
+                this.pendingRequests.cancel(message.getId());
             }
+        } catch (FlowControlException e) {
+            this.pendingRequests.cancel(message.getId());
+            return CompletableFuture.failedFuture(e);
+        }
+        return response;
+    }
 
-            synchronized (messageId) {
-                this.waitingServerResponseIdList.put(messageId, messageId);
-                this.messageToServerQueue.add(message);
+    /**
+     * Sends without waiting for an answer, then blocks while too much is queued, so a streamed body is read from
+     * its source at the pace the server takes it.
+     */
+    public void sendMessagePaced(ServerClientMessage message) {
+        this.sendMessage(message, false);
 
-                if (message.getType() == ServerClientMessage.Type.REQUEST && message.getRequest().getCommand() == MessageRequest.Command.SERVER_EXIT) {
-                    this.stopConnection();
-                    return null;
-                } else {
-                    try {
-                        if (needToWaitResponse) {
-                            log.info("DebugAgent: Message ID {}: Sleeping to wait server processing", messageId);
-                            while(!this.stop && !this.serverResponseResultList.containsKey(messageId)) {
-                                messageId.wait(1000);
-                            }
-                        } else {
-                            return null;
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
+        try {
+            this.outboundWatermark.await(STREAM_MAX_PENDING_IN_BYTE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return false if the message was not sent, the connection is stopped or the message stopped it
+     * @throws FlowControlException if the connection window stayed full
+     */
+    private boolean send(ServerClientMessage message) {
+        if (this.stop) {
+            return false;
+        }
+
+        if (message.getId() == null) {
+            message.setId("CLIENT-" + UUID.randomUUID());
+        }
+
+        int payloadSize = OutboundWatermark.payloadSize(message);
+        this.outboundWatermark.queued(payloadSize, FramePriority.of(message));
 
-                log.info("DebugAgent: Message ID {}: Has result from server", messageId);
-                return this.serverResponseResultList.get(messageId);
+        try {
+            if (!this.messageToServerQueue.put(message)) {
+                this.outboundWatermark.written(payloadSize);
+                return false;
             }
+        } catch (InterruptedException e) {
+            this.outboundWatermark.written(payloadSize);
+            Thread.currentThread().interrupt();
+            return false;
         }
 
+        if (message.getType() == ServerClientMessage.Type.REQUEST && message.getRequest().getCommand() == MessageRequest.Command.SERVER_EXIT) {
+            this.stopConnection();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the server accepted the capability at connect time
+     */
+    public boolean hasServerCapability(String capability) {
+        return this.serverCapabilities.contains(capability);
+    }
+
+    /**
+     * @return stream state of the connection, streamed bodies sent through it wait for the server credit
+     */
+    public StreamAssembler getStreamAssembler() {
+        return this.streamAssembler;
+    }
+
+    /**
+     * @return codec to encode message data with, agreed with the server at connect time
+     */
+    public MessageCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * @return requests waiting for their answer plus bodies still streaming, to spread work over connections
+     */
+    public int getLoad() {
+        return this.pendingRequests.size() + this.streamAssembler.openStreams();
+    }
+
+    public WireFormat getWireFormat() {
+        return this.wireFormat;
     }
 
     @Override
@@ -123,17 +260,72 @@ public class SocketCommunication implements AutoCloseable {
 
     }
 
+    /**
+     * Tells the server what this agent supports on top of the plain binary frames. Servers older than the HELLO
+     * command never answer, the tunnel then goes on without any of them.
+     */
+    private void negotiateCapabilities(boolean compression, MessageCodec preferredCodec) throws IOException {
+        List<String> capabilities = new ArrayList<>();
+        capabilities.add(CAPABILITY_FILE_SYNC);
+        capabilities.add(CAPABILITY_FLOW_CONTROL);
+        capabilities.add(CAPABILITY_LANES);
+        capabilities.add(CAPABILITY_RAW_BODY);
+        capabilities.add(CAPABILITY_MULTI_VALUE_HEADERS);
+
+        if (compression) {
+            capabilities.add(CAPABILITY_DEFLATE);
+        }
+
+        if (preferredCodec != null && preferredCodec != MessageCodecs.JSON) {
+            capabilities.add(MessageCodecs.capabilityOf(preferredCodec));
+        }
+
+        ServerClientMessage response = this.sendMessage(ServerClientMessage.builder()
+                .type(ServerClientMessage.Type.REQUEST)
+                .request(MessageRequest.builder()
+                        .command(MessageRequest.Command.HELLO)
+                        .data(DebugUtils.objectToBytes(capabilities))
+                        .build())
+                .build(), HELLO_TIME_OUT_MS);
+
+        List<String> serverCapabilities = response == null || response.getResponse().getStatus() != 200 ? null :
+                response.getResponse().decodeData(new TypeReference<List<String>>() {});
+
+        if (serverCapabilities != null) {
+            this.serverCapabilities = serverCapabilities;
+        }
+
+        if (this.serverCapabilities.contains(CAPABILITY_FLOW_CONTROL)) {
+            this.streamAssembler.enableFlowControl();
+        }
+
+        if (this.serverCapabilities.contains(CAPABILITY_DEFLATE)) {
+            this.compressionThreshold = COMPRESSION_THRESHOLD_IN_BYTE;
+        }
+
+        MessageCodec serverCodec = this.serverCapabilities.stream()
+                .map(MessageCodecs::fromCapability)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(MessageCodecs.JSON);
+
+        this.codec = MessageCodecs.forPeer(serverCodec, this.serverCapabilities);
+        log.info("DebugAgent: Server capabilities {}", serverCapabilities);
+    }
+
     private void startServerConnection() throws IOException {
         this.clientSocket = new Socket(this.ip, this.port);
+        this.clientSocket.setTcpNoDelay(true);
 
-        this.dos = new DataOutputStream(this.clientSocket.getOutputStream());
-        this.dis = new DataInputStream(this.clientSocket.getInputStream());
+        this.dos = new DataOutputStream(new BufferedOutputStream(this.clientSocket.getOutputStream(), SOCKET_BUFFER_SIZE_IN_BYTE));
+        this.dis = new DataInputStream(new BufferedInputStream(this.clientSocket.getInputStream(), SOCKET_BUFFER_SIZE_IN_BYTE));
     }
 
     private void stopConnection() {
         log.info("DebugAgent: Stopping Socket Communication");
         try {
             this.stop = true;
+            this.messageToServerQueue.close();
 
             if (this.dos != null) {
                 try {
@@ -169,6 +361,10 @@ public class SocketCommunication implements AutoCloseable {
                 }
             });
 
+            this.streamAssembler.failAll();
+            this.outboundWatermark.close();
+            this.pendingRequests.failAll(new IOException("Connection to debug server is closed"));
+
             synchronized (this.stop) {
                 this.stop.notifyAll();
             }
@@ -184,17 +380,15 @@ public class SocketCommunication implements AutoCloseable {
             try {
                 while (!this.stop) {
                     try {
-                        ServerClientMessage message = DebugUtils.readMessage(this.dis);
+                        ServerClientMessage message = this.streamAssembler.accept(DebugUtils.readMessage(this.dis));
 
-                        if (message.getType() == ServerClientMessage.Type.REQUEST) {
-                            CompletableFuture.runAsync(() -> this.serverRequestHandler.action(message), this.executor);
+                        if (message == null) {
+                            // chunk of a streamed body, already handed to its stream
+                        } else if (message.getType() == ServerClientMessage.Type.REQUEST) {
+                            CompletableFuture.runAsync(() -> this.serverRequestHandler.action(this, message), this.executor);
                         } else if (message.getType() == ServerClientMessage.Type.RESPONSE) {
-                            String messageId = this.waitingServerResponseIdList.get(message.getId());
-                            this.waitingServerResponseIdList.remove(messageId);
-                            this.serverResponseResultList.put(messageId, message);
-                            log.info("DebugAgent: Message ID {}: Notify thread to wakeup to process server result", messageId);
-                            synchronized (messageId) {
-                                messageId.notifyAll();
+                            if (!this.pendingRequests.complete(message)) {
+                                log.info("DebugAgent: Message ID {}: Nobody waits for this server result anymore", message.getId());
                             }
                         } else {
                             throw new UnsupportedOperationException(message.toString());
@@ -218,18 +412,12 @@ public class SocketCommunication implements AutoCloseable {
     private void startSendingMessageToServer() {
         this.serverMessageProcessingFutureList.add(CompletableFuture.runAsync(() -> {
             try {
-                while (!this.stop || !this.messageToServerQueue.isEmpty()) {
-                    try {
-                        ServerClientMessage message = this.messageToServerQueue.poll(POLL_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                        if (message != null) {
-                            DebugUtils.writeMessage(this.dos, message);
-                        }
-                    } catch (IOException e) {
-                        log.error("DebugAgent: exception", e);
-                        break;
-                    } catch (InterruptedException e) {
-                    }
-                }
+                new CoalescingSender<>(this.messageToServerQueue, this.dos, this.outboundWatermark, this.flushMaxLatencyMicros, SOCKET_BUFFER_SIZE_IN_BYTE, message -> {
+                    DebugUtils.writeFrame(this.dos, message, this.wireFormat, this.compressionThreshold);
+                    return OutboundWatermark.payloadSize(message);
+                }).run();
+            } catch (IOException e) {
+                log.error("DebugAgent: exception", e);
             } catch (Throwable e) {
                 log.error("DebugAgent: exception " + e.getMessage(), e);
             }
@@ -1,5 +1,7 @@
 package io.github.tontu89.debugclientagent.config;
 
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
 import lombok.Data;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -14,4 +16,10 @@ public class LocalConfig {
     private String webUrl;
     private Map<String, String> environments;
     private Map<String, String> systemProperties;
+    private WireFormat wireFormat = WireFormat.BINARY;
+    private boolean compression = true;
+    private String codec = "smile";
+    private int flushMaxLatencyMicros = 0;
+    private int connections = 3;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
 }
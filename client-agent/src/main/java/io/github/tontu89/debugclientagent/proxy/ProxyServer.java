@@ -2,6 +2,8 @@ package io.github.tontu89.debugclientagent.proxy;
 
 import io.github.tontu89.debugclientagent.config.SSLConfig;
 import io.github.tontu89.debugclientagent.utils.DebugServerHelper;
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import io.github.tontu89.debugserverlib.utils.ExecutorUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.EOFException;
@@ -15,7 +17,6 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 @Slf4j
@@ -28,10 +29,11 @@ public class ProxyServer implements AutoCloseable {
     private ServerSocket serverSocket;
     private SSLConfig sslConfig = null;
 
-    public ProxyServer(int httpPort, DebugServerHelper debugServer) {
+    public ProxyServer(int httpPort, DebugServerHelper debugServer, ExecutionMode executionMode) {
         this.debugServer = debugServer;
         this.servicingThreads = new ArrayList<>();
-        this.executor = Executors.newCachedThreadPool();
+        // a thread per proxied connection, virtual ones if enabled
+        this.executor = ExecutorUtils.newCachedExecutor(executionMode, "debug-proxy");
         this.sslConfig = new SSLConfig();
 
         try {
@@ -16,11 +16,11 @@ import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.InvalidObjectException;
 import java.io.OutputStream;
 import java.net.Socket;
@@ -60,7 +60,7 @@ public class RequestHandler implements AutoCloseable {
         try {
             this.listClientSocket.add(clientSocket);
             clientSocket.setSoTimeout(10 * 60 * 1000);
-            BufferedReader clientToProxyIs = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            InputStream clientToProxyIs = new BufferedInputStream(clientSocket.getInputStream());
             OutputStream proxyToClientOs = clientSocket.getOutputStream();
 
             while(true) {
@@ -89,7 +89,8 @@ public class RequestHandler implements AutoCloseable {
                     RawHttpResponse rawHttpResponse = new RawHttpResponse();
                     rawHttpResponse.setStatusLine(String.format("%s %d %s\r\n", rawHttpRequest.getHttpVersion(), responseInfo.getHttpStatus(), HttpStatus.getStatusText(responseInfo.getHttpStatus())));
                     rawHttpResponse.setHeaderFields(responseInfo.getHeaders());
-                    rawHttpResponse.setPlainResponseBody(responseInfo.getPayload());
+                    rawHttpResponse.setEncodedResponseBody(responseInfo.getBody());
+                    rawHttpResponse.setResponseBodyStream(responseInfo.getPayloadStream());
                     rawHttpResponse.writeTo(proxyToClientOs);
                 }
                 log.info("DebugAgent: end process request by thread {} [{}]", Thread.currentThread().getId(), id);
@@ -105,7 +106,7 @@ public class RequestHandler implements AutoCloseable {
                     .uri(urlCodec.decode(rawHttpRequest.getUrl().toString()))
                     .method(rawHttpRequest.getRequestType())
                     .headers(rawHttpRequest.getHeaders())
-                    .payload(rawHttpRequest.getBody().length() > 0 ? rawHttpRequest.getBody().toString() : null)
+                    .body(rawHttpRequest.getBody().length > 0 ? rawHttpRequest.getBody() : null)
                     .build();
 
             log.debug("DebugAgent: Handle request through proxy {} [{}]", httpRequestInfo, id);
@@ -1,5 +1,6 @@
 package io.github.tontu89.debugclientagent.utils.http;
 
+import io.github.tontu89.debugserverlib.model.MultiValueHeaders;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -7,7 +8,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Hashtable;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -75,19 +76,20 @@ public class RawHttpRequest {
 	/**
 	 * Headers
 	 */
-	private Map<String, String> headers;
+	private MultiValueHeaders headers;
 	
 	/**
-	 * Body
+	 * Body, raw bytes
 	 */
-    private StringBuffer body;
+	@ToString.Exclude
+    private byte[] body;
 
     /**
      * Constructor
      */
     public RawHttpRequest() {
-        headers = new Hashtable<String, String>();
-        body = new StringBuffer();
+        headers = new MultiValueHeaders();
+        body = new byte[0];
     }
     
     /**
@@ -121,21 +123,9 @@ public class RawHttpRequest {
         }
         String headerName = header.substring(0, idx);
         String headerValue = StringUtils.trim(header.substring(idx + 1));
-    	headers.put(headerName, headerValue);
+    	headers.add(headerName, headerValue);
     }
 	
-	/**
-     * Append body line to the rest of message body
-     * @param bodyLine
-     */
-    public void appendMessageBody(String bodyLine, boolean appendNewLine) {
-		if (appendNewLine) {
-			body.append(bodyLine).append("\r\n");
-		} else {
-			body.append(bodyLine);
-		}
-    }
-    
     /**
      * Build HttpRequest attributes
      * @throws IOException
@@ -188,8 +178,7 @@ public class RawHttpRequest {
     public void tamperWithBody(Map<String, String> replacements) {
     	if (replacements != null) {
     		replacements.entrySet().stream().forEach((entry) -> {
-    			this.body = new StringBuffer(
-    					this.body.toString().replaceAll(entry.getKey(), entry.getValue()));
+    			this.body = this.getMessageBody().replaceAll(entry.getKey(), entry.getValue()).getBytes(StandardCharsets.UTF_8);
     			this.query = this.query.replaceAll(entry.getKey(), entry.getValue());
     			try {
     				buildUrl();
@@ -205,7 +194,7 @@ public class RawHttpRequest {
     public boolean containString(String str) {
     	boolean contains = false;
     	if (str != null && str.length() > 0 && (this.body != null || this.query != null)) {
-    		return this.body.toString().contains(str) || this.query.contains(str);
+    		return this.getMessageBody().contains(str) || this.query.contains(str);
     	}
     	return contains;
     }
@@ -220,7 +209,7 @@ public class RawHttpRequest {
     	RawHttpRequest rawHttpRequest = new RawHttpRequest(this);
     	if (str != null && replacement != null && (this.body != null || this.query != null)) {
     		rawHttpRequest.setQuery(this.query.replaceAll(str, replacement));
-    		rawHttpRequest.setBody(new StringBuffer(this.body.toString().replaceAll(str, replacement)));
+    		rawHttpRequest.setBody(this.getMessageBody().replaceAll(str, replacement).getBytes(StandardCharsets.UTF_8));
     	}
     	return rawHttpRequest;
     }
@@ -240,16 +229,20 @@ public class RawHttpRequest {
         return requestLine;
     }
 
+    /**
+     * @return body decoded as UTF-8 text
+     */
     public String getMessageBody() {
-        return body.toString();
+        return new String(body, StandardCharsets.UTF_8);
     }
 
     public String getHeaderParam(String headerName){
-        return headers.get(headerName);
+        return headers.getFirst(headerName);
     }
     
     public String getHeaderParam(String headerName, String otherwise){
-        return headers.get(headerName) != null ? headers.get(headerName) : otherwise;
+        String value = headers.getFirst(headerName);
+        return value != null ? value : otherwise;
     }
     
     public String getRequestType() {
@@ -292,15 +285,15 @@ public class RawHttpRequest {
 		return this.query;
 	}
 	
-	public Map<String, String> getHeaders() {
+	public MultiValueHeaders getHeaders() {
 		return headers;
 	}
 
-	public StringBuffer getBody() {
+	public byte[] getBody() {
 		return body;
 	}
 
-	public void setBody(StringBuffer body) {
+	public void setBody(byte[] body) {
 		this.body = body;
 	}
 
@@ -1,15 +1,15 @@
 package io.github.tontu89.debugclientagent.utils.http;
 
+import io.github.tontu89.debugserverlib.model.MultiValueHeaders;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.StatusLine;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -34,7 +34,7 @@ public class RawHttpResponse {
 	/**
 	 * Headers
 	 */
-	private Map<String, String> headers;
+	private MultiValueHeaders headers;
 	
 	/**
 	 * Raw response body
@@ -55,6 +55,11 @@ public class RawHttpResponse {
 	 * Encoding algorithm
 	 */
 	private String contentEncoding;
+
+	/**
+	 * Body still arriving from the debug server, sent with chunked transfer encoding
+	 */
+	private InputStream responseBodyStream;
 	
 	/**
 	 * 
@@ -72,7 +77,7 @@ public class RawHttpResponse {
     	if (tamperedHeaders != null) {
     		tamperedHeaders.entrySet().stream().forEach((entry) -> {
     			if (!immutableHeaders.contains(entry.getKey())) {
-    				this.headers.put(entry.getKey(), entry.getValue());
+    				this.headers.set(entry.getKey(), entry.getValue());
     			}
     		});
     	}
@@ -101,20 +106,23 @@ public class RawHttpResponse {
 		this.responseCode = responseCode;
 	}
 
-	public Map<String, String> getHeaders() {
+	public MultiValueHeaders getHeaders() {
 		return headers;
 	}
 
-	public void setHeaderFields(Map<String, String> headers) {
+	public void setHeaderFields(MultiValueHeaders headers) {
 		this.headers = headers;
 	}
 
+	/**
+	 * Every value of a repeated header is kept as its own field, joining Set-Cookie values would break them
+	 */
 	public void setHeaders(Map<String, List<String>> headers) {
-		this.headers = new HashMap<>();
+		this.headers = new MultiValueHeaders();
 		if (headers != null) {
-			headers.forEach((key, value) -> {
-				if (key != null) {
-					this.headers.put(key, String.join(", ", value));
+			headers.forEach((key, values) -> {
+				if (key != null && values != null) {
+					values.forEach(value -> this.headers.add(key, value));
 				}
 			});
 		}
@@ -154,6 +162,14 @@ public class RawHttpResponse {
 		this.contentEncoding = contentEncoding;
 	}
 
+	public InputStream getResponseBodyStream() {
+		return responseBodyStream;
+	}
+
+	public void setResponseBodyStream(InputStream responseBodyStream) {
+		this.responseBodyStream = responseBodyStream;
+	}
+
 	public void writeTo(OutputStream os) throws IOException {
 
 		// Send status line
@@ -161,20 +177,26 @@ public class RawHttpResponse {
 
 		if (this.getHeaders() != null) {
 			// send headers (filtered)
-			for (Map.Entry<String, String> header : this.getHeaders().entrySet()) {
-				if ("content-length".equals(header.getKey().toLowerCase(Locale.ROOT))) {
+			for (int i = 0; i < this.getHeaders().size(); ++i) {
+				String name = this.getHeaders().getName(i);
+				if ("content-length".equals(name) || "transfer-encoding".equals(name)) {
 					continue;
 				}
 				os.write(
-						new StringBuilder().append(header.getKey())
+						new StringBuilder().append(name)
 								.append(": ")
-								.append(header.getValue())
+								.append(this.getHeaders().getValue(i))
 								.append("\r\n")
 								.toString()
 								.getBytes(StandardCharsets.UTF_8));
 			}
 		}
 
+		if (this.responseBodyStream != null) {
+			this.writeChunkedBodyTo(os);
+			return;
+		}
+
 		byte[] body = null;
 
 		body = retrieveEncodedResponseBody();
@@ -205,4 +227,25 @@ public class RawHttpResponse {
 
 		os.flush();
 	}
+
+	private void writeChunkedBodyTo(OutputStream os) throws IOException {
+		os.write("Transfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+
+		try (InputStream streamToSend = this.responseBodyStream) {
+			byte[] bodyChunk = new byte[BUFFER_SIZE];
+			int read = streamToSend.read(bodyChunk, 0, BUFFER_SIZE);
+			while (read != -1) {
+				if (read > 0) {
+					os.write(String.format("%x\r\n", read).getBytes(StandardCharsets.UTF_8));
+					os.write(bodyChunk, 0, read);
+					os.write("\r\n".getBytes(StandardCharsets.UTF_8));
+					os.flush();
+				}
+				read = streamToSend.read(bodyChunk, 0, BUFFER_SIZE);
+			}
+		}
+
+		os.write("0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+		os.flush();
+	}
 }
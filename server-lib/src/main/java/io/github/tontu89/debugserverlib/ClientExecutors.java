@@ -0,0 +1,221 @@
+package io.github.tontu89.debugserverlib;
+
+import io.github.tontu89.debugserverlib.config.RemoteDebugServerConfig;
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import io.github.tontu89.debugserverlib.utils.ExecutorUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pools all clients of the server share, so the threads in the pod follow the configuration rather than the
+ * number of clients.
+ * <ul>
+ *     <li>io: connection loops, heart beats and closing clients. At most {@code maxConnections} connections are
+ *     admitted, each one needs up to {@link #IO_THREADS_PER_CONNECTION} threads</li>
+ *     <li>request: commands sent by the clients, on {@code requestThreads} threads. A client runs at most
+ *     {@code numberOfThreadPerClient} commands at a time, the rest wait in its own queue, so a busy client can't
+ *     take the pool from the others</li>
+ * </ul>
+ * With {@link ExecutionMode#VIRTUAL} both run on virtual threads, the connection limit and the client quota still hold.
+ */
+@Slf4j
+public class ClientExecutors implements AutoCloseable {
+    /**
+     * Reader, sender, heart beat, and closing the client which waits for the heart beat to stop
+     */
+    private static final int IO_THREADS_PER_CONNECTION = 4;
+    private static final int IO_SPARE_THREADS = 8;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService ioPool;
+    private final ExecutorService requestPool;
+    private final int maxConnections;
+    private final int quotaPerClient;
+    private final AtomicInteger connections;
+    private final AtomicInteger busyIoThreads;
+    private final AtomicInteger busyRequestThreads;
+    private final AtomicInteger queuedRequests;
+    private final AtomicLong rejectedTasks;
+
+    public ClientExecutors(RemoteDebugServerConfig remoteDebugServerConfig) {
+        this.maxConnections = Math.max(1, remoteDebugServerConfig.getMaxConnections());
+        this.quotaPerClient = Math.max(1, remoteDebugServerConfig.getNumberOfThreadPerClient());
+        this.connections = new AtomicInteger();
+        this.busyIoThreads = new AtomicInteger();
+        this.busyRequestThreads = new AtomicInteger();
+        this.queuedRequests = new AtomicInteger();
+        this.rejectedTasks = new AtomicLong();
+
+        if (ExecutorUtils.effective(remoteDebugServerConfig.getExecutionMode()) == ExecutionMode.VIRTUAL) {
+            this.ioPool = ExecutorUtils.newVirtualThreadPerTaskExecutor("debug-io");
+            this.requestPool = ExecutorUtils.newVirtualThreadPerTaskExecutor("debug-request");
+        } else {
+            int requestThreads = Math.max(1, remoteDebugServerConfig.getRequestThreads());
+
+            this.ioPool = new ThreadPoolExecutor(0, this.maxConnections * IO_THREADS_PER_CONNECTION + IO_SPARE_THREADS,
+                    IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), ExecutorUtils.newThreadFactory("debug-io"));
+            // the queue holds at most quotaPerClient commands of each client, the rest wait in the client queues
+            this.requestPool = new ThreadPoolExecutor(requestThreads, requestThreads,
+                    0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), ExecutorUtils.newThreadFactory("debug-request"));
+        }
+    }
+
+    /**
+     * Counts a new connection in.
+     *
+     * @return false if {@code maxConnections} are open already, the connection must be refused
+     */
+    public boolean admit() {
+        while (true) {
+            int current = this.connections.get();
+
+            if (current >= this.maxConnections) {
+                log.warn("DebugLib: Connection refused, {}", this);
+                return false;
+            }
+
+            if (this.connections.compareAndSet(current, current + 1)) {
+                log.info("DebugLib: Connection admitted, {}", this);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Counts a connection admitted by {@link #admit()} out once it is closed
+     */
+    public void release() {
+        this.connections.decrementAndGet();
+        log.info("DebugLib: Connection released, {}", this);
+    }
+
+    public Executor getIoExecutor() {
+        return task -> this.submit(this.ioPool, this.busyIoThreads, task);
+    }
+
+    /**
+     * @return executor for the commands of one client, holding it to its quota of the request pool
+     */
+    public Executor newClientExecutor() {
+        return new ClientQuota();
+    }
+
+    public int getConnections() {
+        return this.connections.get();
+    }
+
+    public int getBusyIoThreads() {
+        return this.busyIoThreads.get();
+    }
+
+    public int getBusyRequestThreads() {
+        return this.busyRequestThreads.get();
+    }
+
+    public int getQueuedRequests() {
+        return this.queuedRequests.get();
+    }
+
+    public long getRejectedTasks() {
+        return this.rejectedTasks.get();
+    }
+
+    @Override
+    public void close() {
+        this.ioPool.shutdownNow();
+        this.requestPool.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "connections " + this.connections.get() + "/" + this.maxConnections
+                + ", io threads " + this.busyIoThreads.get() + " busy of " + poolSize(this.ioPool)
+                + ", request threads " + this.busyRequestThreads.get() + " busy of " + poolSize(this.requestPool)
+                + ", " + this.queuedRequests.get() + " requests queued, " + this.rejectedTasks.get() + " tasks rejected";
+    }
+
+    private void submit(ExecutorService pool, AtomicInteger busy, Runnable task) {
+        try {
+            pool.execute(() -> {
+                busy.incrementAndGet();
+
+                try {
+                    task.run();
+                } finally {
+                    busy.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.rejectedTasks.incrementAndGet();
+            log.error("DebugLib: Task rejected, {}", this);
+            throw e;
+        }
+    }
+
+    private static String poolSize(ExecutorService pool) {
+        return pool instanceof ThreadPoolExecutor ? String.valueOf(((ThreadPoolExecutor) pool).getPoolSize()) : "virtual";
+    }
+
+    /**
+     * Hands the commands of a client to the request pool, at most {@code quotaPerClient} at a time
+     */
+    private class ClientQuota implements Executor {
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger running = new AtomicInteger();
+
+        @Override
+        public void execute(Runnable task) {
+            this.waiting.add(task);
+            queuedRequests.incrementAndGet();
+            this.dispatch();
+        }
+
+        private void dispatch() {
+            while (!this.waiting.isEmpty()) {
+                int current = this.running.get();
+
+                if (current >= quotaPerClient) {
+                    // the next command to finish dispatches again
+                    return;
+                }
+
+                if (!this.running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+
+                Runnable task = this.waiting.poll();
+
+                if (task == null) {
+                    this.running.decrementAndGet();
+                    continue;
+                }
+                queuedRequests.decrementAndGet();
+
+                try {
+                    submit(requestPool, busyRequestThreads, () -> {
+                        try {
+                            task.run();
+                        } finally {
+                            this.running.decrementAndGet();
+                            this.dispatch();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    this.running.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+}
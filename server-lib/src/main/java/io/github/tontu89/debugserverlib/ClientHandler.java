@@ -1,273 +1,391 @@
 package io.github.tontu89.debugserverlib;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.jayway.jsonpath.JsonPath;
 import io.github.tontu89.debugserverlib.config.RemoteDebugServerConfig;
 import io.github.tontu89.debugserverlib.filter.requestwrapper.CachedBodyHttpServletRequest;
+import io.github.tontu89.debugserverlib.model.DownloadFileRequest;
+import io.github.tontu89.debugserverlib.model.FileSyncRequest;
 import io.github.tontu89.debugserverlib.model.FilterRequest;
 import io.github.tontu89.debugserverlib.model.FilterRequestMatchPattern;
 import io.github.tontu89.debugserverlib.model.HttpRequestInfo;
 import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
 import io.github.tontu89.debugserverlib.model.MessageRequest;
 import io.github.tontu89.debugserverlib.model.MessageResponse;
+import io.github.tontu89.debugserverlib.model.RequestMatchContext;
 import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.transport.ClientConnection;
+import io.github.tontu89.debugserverlib.transport.ClientConnectionListener;
+import io.github.tontu89.debugserverlib.transport.FlowControlException;
+import io.github.tontu89.debugserverlib.transport.MessageCodec;
+import io.github.tontu89.debugserverlib.transport.MessageCodecs;
+import io.github.tontu89.debugserverlib.transport.PendingRequests;
+import io.github.tontu89.debugserverlib.transport.RttEstimator;
+import io.github.tontu89.debugserverlib.transport.StreamAssembler;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
 import io.github.tontu89.debugserverlib.utils.Constants;
 import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import io.github.tontu89.debugserverlib.utils.ExecutorUtils;
 import io.github.tontu89.debugserverlib.utils.FileUtils;
 import io.github.tontu89.debugserverlib.utils.HttpUtils;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
 import static io.github.tontu89.debugserverlib.utils.Constants.MAX_REQUEST_TIME_OUT_MS;
-import static io.github.tontu89.debugserverlib.utils.Constants.OBJECT_MAPPER;
-import static io.github.tontu89.debugserverlib.utils.Constants.POLL_QUEUE_TIMEOUT_MS;
 
 @Slf4j
-public class ClientHandler extends Thread implements AutoCloseable {
+public class ClientHandler implements ClientConnectionListener, AutoCloseable {
     public enum Status {RUNNING, STOPPED, NOT_RUNNING}
 
-    private final BlockingQueue<ServerClientMessage> messageRequestFromClientQueue;
-    private final BlockingQueue<ServerClientMessage> messageResponseFromClientQueue;
-    private final BlockingQueue<ServerClientMessage> messageToClientQueue;
-    private final DataInputStream dis;
-    private final DataOutputStream dos;
+    /**
+     * Running clients by id, so further connections of the same agent can join them as lanes
+     */
+    private static final Map<String, ClientHandler> CLIENTS = new ConcurrentHashMap<>();
+
+    private final ClientConnection connection;
     private final RemoteDebugServerConfig remoteDebugServerConfig;
     private final Executor executor;
-    private final ExecutorService processClientRequestExecutor;
+    private final Executor processClientRequestExecutor;
+    private final boolean ownExecutors;
     private final FilterRequest debugFilterRequest;
-    private final Map<String, ServerClientMessage> responseForServerRequest;
-    private final Map<String, String> serverRequestId;
-    private final Socket socket;
+    private final List<Runnable> closeListeners;
+    private final List<Runnable> filterChangeListeners;
+    private final PendingRequests pendingServerRequests;
+    private final StreamAssembler streamAssembler;
     private final String clientId;
+    private final List<ClientHandler> lanes;
+    private final AtomicInteger inFlight;
+    private final Set<String> carriedRequests;
+    private final RttEstimator rtt;
+
+    private volatile boolean stop;
+    private volatile WireFormat clientWireFormat;
+    private volatile MessageCodec clientCodec;
+    private volatile ClientHandler session;
+    private volatile long lastHeardNanos;
+    private volatile boolean healthy;
 
-    private boolean stop;
-
-    private Future<Void> sendMessageToClientFuture;
-    private Future<Void> processClientRequestFuture;
-    private Future<Void> processClientResponseFuture;
     private Future<Void> heartBeatFuture;
-    private Status status;
+    private volatile Status status;
     private String clientName;
 
 
-    public ClientHandler(RemoteDebugServerConfig remoteDebugServerConfig, DataInputStream dis, DataOutputStream dos, Socket socket) {
-        this.socket = socket;
-        this.dis = dis;
-        this.dos = dos;
+    /**
+     * Client with its own thread pools, they are shut down together with the client.
+     */
+    public ClientHandler(RemoteDebugServerConfig remoteDebugServerConfig, ClientConnection connection) {
+        this(remoteDebugServerConfig, connection, ExecutorUtils.newCachedExecutor(remoteDebugServerConfig.getExecutionMode(), "debug-client"),
+                ExecutorUtils.newFixedExecutor(remoteDebugServerConfig.getExecutionMode(), "debug-client-request", remoteDebugServerConfig.getNumberOfThreadPerClient()),
+                true);
+    }
+
+    /**
+     * Client running on pools shared with other clients, the caller owns and shuts down the pools.
+     *
+     * @see ClientExecutors
+     */
+    public ClientHandler(RemoteDebugServerConfig remoteDebugServerConfig, ClientConnection connection, Executor executor, Executor processClientRequestExecutor) {
+        this(remoteDebugServerConfig, connection, executor, processClientRequestExecutor, false);
+    }
+
+    private ClientHandler(RemoteDebugServerConfig remoteDebugServerConfig, ClientConnection connection, Executor executor, Executor processClientRequestExecutor, boolean ownExecutors) {
+        this.connection = connection;
         this.status = Status.NOT_RUNNING;
         this.debugFilterRequest = new FilterRequest();
-        this.executor = Executors.newCachedThreadPool();
-        this.messageRequestFromClientQueue = new LinkedBlockingQueue<>();
-        this.messageResponseFromClientQueue = new LinkedBlockingQueue<>();
-        this.messageToClientQueue = new LinkedBlockingQueue<>();
-        this.responseForServerRequest = new ConcurrentHashMap<>();
-        this.serverRequestId = new ConcurrentHashMap<>();
+        this.closeListeners = new CopyOnWriteArrayList<>();
+        this.filterChangeListeners = new CopyOnWriteArrayList<>();
+        this.executor = executor;
+        this.pendingServerRequests = new PendingRequests(processClientRequestExecutor);
+        this.streamAssembler = new StreamAssembler(credit -> this.connection.send(credit, this.clientWireFormat));
         this.stop = false;
+        this.clientWireFormat = WireFormat.JSON;
+        this.clientCodec = MessageCodecs.LEGACY_JSON;
         this.clientId = UUID.randomUUID().toString();
+        this.lanes = new CopyOnWriteArrayList<>();
+        this.inFlight = new AtomicInteger();
+        this.carriedRequests = ConcurrentHashMap.newKeySet();
+        this.rtt = new RttEstimator(remoteDebugServerConfig.getHeartBeatMinTimeoutMs(), remoteDebugServerConfig.getHeartBeatTimeoutMs());
+        this.lastHeardNanos = System.nanoTime();
+        this.healthy = true;
         this.remoteDebugServerConfig = remoteDebugServerConfig;
-        this.processClientRequestExecutor = Executors.newFixedThreadPool(this.remoteDebugServerConfig.getNumberOfThreadPerClient() > 1 ? this.remoteDebugServerConfig.getNumberOfThreadPerClient() : 1);
+        this.processClientRequestExecutor = processClientRequestExecutor;
+        this.ownExecutors = ownExecutors;
+    }
+
+    public void start() {
+        this.status = Status.RUNNING;
+        CLIENTS.put(this.clientId, this);
+        this.connection.start(this, this.executor);
+        this.startSendHeartBeat();
     }
 
     @Override
-    @SneakyThrows
-    public void run() {
-        ServerClientMessage receivedMessage;
+    public void onMessage(ServerClientMessage frame) {
+        this.lastHeardNanos = System.nanoTime();
 
-        try {
-            startSendMessageToClient();
-            startProcessClientRequest();
-            startProcessClientResponse();
-            startSendHeartBeat();
+        // Answer with the format the client talks, so older JSON-only agents keep working
+        this.clientWireFormat = frame.getWireFormat();
 
-            while (!this.stop && !this.socket.isClosed()) {
-                try {
-                    this.status = Status.RUNNING;
+        ServerClientMessage receivedMessage = this.streamAssembler.accept(frame);
 
-                    receivedMessage = DebugUtils.readMessage(this.dis);
+        if (receivedMessage == null) {
+            return;
+        }
 
-                    if (receivedMessage.getType() == ServerClientMessage.Type.REQUEST) {
-                        this.messageRequestFromClientQueue.add(receivedMessage);
-                    } else if (receivedMessage.getType() == ServerClientMessage.Type.RESPONSE) {
-                        this.messageResponseFromClientQueue.add(receivedMessage);
-                    } else {
-                        log.error("DebugLib: Unsupported message type {}", receivedMessage);
-                    }
-                } catch (EOFException e) {
-                    this.stop = true;
-                } catch (SocketException e) {
-                    this.stop = true;
-                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-                } catch (IOException e) {
-                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-                }
+        if (receivedMessage.getType() == ServerClientMessage.Type.REQUEST) {
+            try {
+                CompletableFuture.runAsync(() -> this.processClientRequest(receivedMessage), this.processClientRequestExecutor)
+                        .exceptionally(e -> {
+                            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                            return null;
+                        });
+            } catch (Throwable e) {
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
             }
-        } catch (Throwable e) {
-            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        } else if (receivedMessage.getType() == ServerClientMessage.Type.RESPONSE) {
+            this.processClientResponse(receivedMessage);
+        } else {
+            log.error("DebugLib: Unsupported message type {}", receivedMessage);
         }
+    }
 
-        this.close();
+    @Override
+    public void onClose() {
+        this.closeAsync();
     }
 
     public HttpResponseInfo forwardHttpRequestToClient(CachedBodyHttpServletRequest httpRequest, int timeOutInMs) throws Exception {
-        HttpRequestInfo requestInfo = HttpRequestInfo.fromHttpRequest(httpRequest, true);
+        return this.forwardHttpRequestToClient(HttpRequestInfo.fromHttpRequest(httpRequest, true), timeOutInMs);
+    }
+
+    public HttpResponseInfo forwardHttpRequestToClient(HttpRequestInfo requestInfo, int timeOutInMs) throws Exception {
+        return join(this.forwardHttpRequestToClientAsync(requestInfo, timeOutInMs));
+    }
+
+    /**
+     * Same as {@link #forwardHttpRequestToClient(CachedBodyHttpServletRequest, int)} without holding a thread while the
+     * client works, the future completes on the pool processing client requests.
+     */
+    public CompletableFuture<HttpResponseInfo> forwardHttpRequestToClientAsync(CachedBodyHttpServletRequest httpRequest, int timeOutInMs) throws Exception {
+        return this.forwardHttpRequestToClientAsync(HttpRequestInfo.fromHttpRequest(httpRequest, true), timeOutInMs);
+    }
+
+    /**
+     * Non blocking forwarding for requests that did not come through the servlet filter
+     */
+    public CompletableFuture<HttpResponseInfo> forwardHttpRequestToClientAsync(HttpRequestInfo requestInfo, int timeOutInMs) throws Exception {
+        ClientHandler lane = this.nextLane();
         MessageRequest messageRequest = MessageRequest.builder()
                 .command(MessageRequest.Command.CLIENT_EXECUTE_HTTP_REQUEST)
-                .dataBase64(DebugUtils.objectToBase64String(requestInfo))
+                .data(DebugUtils.objectToBytes(requestInfo, lane.clientCodec))
                 .build();
-        String responseData = this.sendMessageToClient(messageRequest, timeOutInMs);
-        return DebugUtils.base64StringToObject(responseData, HttpResponseInfo.class);
+
+        return this.sendMessageToClientAsync(lane, messageRequest, timeOutInMs).thenApply(message -> {
+            MessageResponse response = message.getResponse();
+
+            try {
+                HttpResponseInfo responseInfo = DebugUtils.bytesToObject(response.getData(), HttpResponseInfo.class);
+                responseInfo.setPayloadStream(response.getDataStream());
+                return responseInfo;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
     }
 
     public HttpResponseInfo forwardHttpRequestToClient(CachedBodyHttpServletRequest httpRequest) throws Exception {
         return this.forwardHttpRequestToClient(httpRequest, MAX_REQUEST_TIME_OUT_MS);
     }
 
-    private void startSendMessageToClient() {
-        this.sendMessageToClientFuture = CompletableFuture.runAsync(() -> {
-            try {
-                while (!this.stop || !this.messageToClientQueue.isEmpty()) {
-                    ServerClientMessage message = pollMessageFromQueue(this.messageToClientQueue);
-
-                    if (message == null) continue;
+    private void processClientRequest(ServerClientMessage message) {
+        this.inFlight.incrementAndGet();
 
-                    DebugUtils.writeMessage(this.dos, message);
-                }
-            } catch (Throwable e) {
-                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-                this.closeAsync();
-            }
-        }, this.executor);
+        try {
+            this.doProcessClientRequest(message);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
     }
 
-    private void startProcessClientRequest() {
-        this.processClientRequestFuture = CompletableFuture.runAsync(() -> {
-            while (!this.stop) {
-                ServerClientMessage message = pollMessageFromQueue(this.messageRequestFromClientQueue);
+    private void doProcessClientRequest(ServerClientMessage message) {
+        MessageRequest messageRequest = message.getRequest();
+        MessageResponse messageResponse = MessageResponse.builder()
+                .status(HttpStatus.OK.value())
+                .build();
 
-                if (message == null) continue;
+        try {
+            switch (messageRequest.getCommand()) {
+                case SERVER_EXIT:
+                    this.stop = true;
+                    break;
+                case SERVER_GET_ENV:
+                    messageResponse.encodeData(System.getenv(), this.clientCodec);
+                    break;
+                case SERVER_GET_PROP:
+                    messageResponse.encodeData(System.getProperties(), this.clientCodec);
+                    break;
+                case SERVER_ADD_FILTER_PATTERN:
+                    List<FilterRequestMatchPattern> matchPatterns = messageRequest.decodeData(new TypeReference<List<FilterRequestMatchPattern>>() {
+                    });
+                    matchPatterns.forEach(e -> e.init());
+                    this.debugFilterRequest.addPattern(matchPatterns);
+                    this.fireFilterChange();
+                    break;
+                case SERVER_GET_ALL_FILTER_PATTERN:
+                    messageResponse.encodeData(this.debugFilterRequest.getMatchPatterns(), this.clientCodec);
+                    break;
+                case SERVER_CLEAR_ALL_FILTER_PATTERN:
+                    this.debugFilterRequest.getMatchPatterns().clear();
+                    this.fireFilterChange();
+                    break;
+                case SERVER_EXECUTE_HTTP_REQUEST:
+                    HttpRequestInfo clientRequestInfo = messageRequest.decodeData(HttpRequestInfo.class);
+                    this.executeClientHttpRequest(clientRequestInfo, message.getId());
+                    return;
+                case SERVER_DOWNLOAD_FILE:
+                    DownloadFileRequest downloadFileRequest = Optional.ofNullable(messageRequest.decodeData(DownloadFileRequest.class)).orElseGet(DownloadFileRequest::new);
+                    messageResponse = FileUtils.downloadFile(downloadFileRequest.getFilePath(), downloadFileRequest.getOffset(), downloadFileRequest.getOffsetSha256());
+                    break;
+                case SERVER_SYNC_FILE:
+                    messageResponse = FileUtils.syncFile(messageRequest.decodeData(FileSyncRequest.class), this.clientCodec);
+                    break;
+                case SERVER_SET_CLIENT_NAME:
+                    this.clientName = messageRequest.decodeData(String.class);
+                    // further connections of the agent join this client by its id
+                    messageResponse.encodeData(this.clientId, this.clientCodec);
+                    break;
+                case SERVER_JOIN_SESSION:
+                    if (!this.joinSession(messageRequest.decodeData(String.class))) {
+                        messageResponse.setStatus(HttpStatus.NOT_FOUND.value());
+                    }
+                    break;
+                case HEART_BEAT:
+                    messageResponse.setStatus(Constants.HEART_BEAT_RESPONSE_CODE);
+                    break;
+                case HELLO:
+                    List<String> clientCapabilities = messageRequest.decodeData(new TypeReference<List<String>>() {
+                    });
+                    messageResponse.encodeData(this.acceptCapabilities(clientCapabilities));
+                    break;
 
-                CompletableFuture.runAsync(() -> {
-                    MessageRequest messageRequest = message.getRequest();
-                    MessageResponse messageResponse = MessageResponse.builder()
-                            .status(HttpStatus.OK.value())
-                            .build();
+            }
+        } catch (Throwable e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            messageResponse.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+        }
+        ServerClientMessage serverClientMessage = ServerClientMessage.builder()
+                .id(message.getId())
+                .type(ServerClientMessage.Type.RESPONSE)
+                .response(messageResponse)
+                .build();
 
-                    try {
-                        switch (messageRequest.getCommand()) {
-                            case SERVER_EXIT:
-                                this.stop = true;
-                                break;
-                            case SERVER_GET_ENV:
-                                messageResponse.encodeDataBase64(System.getenv());
-                                break;
-                            case SERVER_GET_PROP:
-                                messageResponse.encodeDataBase64(System.getProperties());
-                                break;
-                            case SERVER_ADD_FILTER_PATTERN:
-                                List<FilterRequestMatchPattern> matchPatterns = DebugUtils.base64StringToObject(messageRequest.getDataBase64(), new TypeReference<List<FilterRequestMatchPattern>>() {
-                                });
-                                matchPatterns.forEach(e -> e.init());
-                                this.debugFilterRequest.addPattern(matchPatterns);
-                                break;
-                            case SERVER_GET_ALL_FILTER_PATTERN:
-                                messageResponse.encodeDataBase64(this.debugFilterRequest.getMatchPatterns());
-                                break;
-                            case SERVER_CLEAR_ALL_FILTER_PATTERN:
-                                this.debugFilterRequest.getMatchPatterns().clear();
-                                break;
-                            case SERVER_EXECUTE_HTTP_REQUEST:
-                                HttpRequestInfo clientRequestInfo = DebugUtils.base64StringToObject(messageRequest.getDataBase64(), HttpRequestInfo.class);
-                                messageResponse.encodeDataBase64(this.executeClientHttpRequest(clientRequestInfo));
-                                break;
-                            case SERVER_DOWNLOAD_FILE:
-                                String filePath = DebugUtils.base64StringToObject(messageRequest.getDataBase64(), String.class);
-                                messageResponse = FileUtils.downloadFile(filePath);
-                                break;
-                            case SERVER_SET_CLIENT_NAME:
-                                this.clientName = DebugUtils.base64StringToObject(messageRequest.getDataBase64(), String.class);
-                                break;
-                            case HEART_BEAT:
-                                messageResponse.setStatus(Constants.HEART_BEAT_RESPONSE_CODE);
-                                break;
+        try {
+            DebugUtils.sendMessage(serverClientMessage, this.clientWireFormat, this.streamAssembler, this::sendPaced);
+        } catch (Throwable e) {
+            this.responseFailed(serverClientMessage, e);
+        }
+    }
 
-                        }
-                    } catch (Throwable e) {
-                        log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-                        messageResponse.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
-                    }
-                    ServerClientMessage serverClientMessage = ServerClientMessage.builder()
-                            .id(message.getId())
-                            .type(ServerClientMessage.Type.RESPONSE)
-                            .response(messageResponse)
-                            .build();
-                    this.messageToClientQueue.add(serverClientMessage);
-                }, this.processClientRequestExecutor);
+    private void processClientResponse(ServerClientMessage message) {
+        ClientHandler primary = this.session;
+
+        try {
+            // a lane carries answers to requests of its session, and to its own heart beats
+            if ((primary == null || !primary.pendingServerRequests.complete(message)) && !this.pendingServerRequests.complete(message)) {
+                log.error("DebugLib: No pending server request for response {}", message.getId());
             }
-        }, this.executor);
+        } catch (Throwable e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
     }
 
-    private void startProcessClientResponse() {
-        this.processClientResponseFuture = CompletableFuture.runAsync(() -> {
-            try {
-                while (!this.stop || !this.messageResponseFromClientQueue.isEmpty()) {
-                    ServerClientMessage message = pollMessageFromQueue(this.messageResponseFromClientQueue);
+    public boolean isMatch(CachedBodyHttpServletRequest httpRequest) {
+        return this.isMatch(RequestMatchContext.fromHttpRequest(httpRequest));
+    }
 
-                    if (message == null) continue;
+    public boolean isMatch(HttpRequestInfo requestInfo) {
+        return this.isMatch(new RequestMatchContext(requestInfo));
+    }
 
-                    try {
-                        String messageId = this.serverRequestId.get(message.getId());
-                        this.responseForServerRequest.put(messageId, message);
+    /**
+     * @param request shared by every client the request is matched against
+     */
+    public boolean isMatch(RequestMatchContext request) {
+        if (this.isTakingRequests()) {
+            try {
+                log.debug("DebugLib: Matching request [{}]", request.getRequestInfo());
 
-                        synchronized (messageId) {
-                            messageId.notifyAll();
-                        }
-                    } catch (Throwable e) {
-                        log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-                    }
-                }
+                return this.debugFilterRequest.isMatch(request);
             } catch (Throwable e) {
                 log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-                this.closeAsync();
             }
-        }, this.executor);
+        }
+        return false;
     }
 
-    public boolean isMatch(CachedBodyHttpServletRequest httpRequest) {
-        if (this.isRunning()) {
-            try {
-                String httpRequestJsonFormat = OBJECT_MAPPER.writeValueAsString(HttpRequestInfo.fromHttpRequest(httpRequest, true));
+    /**
+     * Lanes have no filters, their session matches for them. A client missing heart beats gets no new requests
+     */
+    public boolean isTakingRequests() {
+        return this.isRunning() && this.healthy && this.session == null;
+    }
 
-                log.debug("DebugLib: Matching httpRequestJsonFormat [{}]", httpRequestJsonFormat);
+    /**
+     * @return the filters as they are now, later changes do not show in the returned list
+     */
+    public List<FilterRequestMatchPattern> getMatchPatterns() {
+        return List.copyOf(this.debugFilterRequest.getMatchPatterns());
+    }
 
-                return this.debugFilterRequest.isMatch(JsonPath.parse(httpRequestJsonFormat));
+    /**
+     * Runs the listener every time the client adds or clears its filters
+     */
+    public void addFilterChangeListener(Runnable listener) {
+        this.filterChangeListeners.add(listener);
+    }
+
+    private void fireFilterChange() {
+        this.filterChangeListeners.forEach(listener -> {
+            try {
+                listener.run();
             } catch (Throwable e) {
                 log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
             }
+        });
+    }
+
+    /**
+     * Runs the listener once the client is closed, right away if it is already closed.
+     */
+    public void addCloseListener(Runnable listener) {
+        synchronized (this) {
+            if (this.status != Status.STOPPED) {
+                this.closeListeners.add(listener);
+                return;
+            }
         }
-        return false;
+        listener.run();
     }
 
     public String getClientId() {
@@ -280,8 +398,13 @@ public class ClientHandler extends Thread implements AutoCloseable {
 
     @Override
     public void close() {
-        this.stop = true;
-        this.status = Status.STOPPED;
+        synchronized (this) {
+            if (this.status == Status.STOPPED) {
+                return;
+            }
+            this.stop = true;
+            this.status = Status.STOPPED;
+        }
 
         try {
             log.info("DebugLib: Notify all watcher before closing client connection");
@@ -291,75 +414,78 @@ public class ClientHandler extends Thread implements AutoCloseable {
         } catch (Throwable e) {
             log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
         }
-        log.info("DebugLib: Client " + this.socket + " sends exit...");
+        log.info("DebugLib: Client " + this.connection + " sends exit...");
         log.info("DebugLib: Closing this connection.");
-        log.info("DebugLib: Connection closed");
-
-        Arrays.asList(this.processClientRequestFuture, this.sendMessageToClientFuture, this.processClientResponseFuture, this.heartBeatFuture).forEach((f) -> {
-            try {
-                if (f != null && !f.isDone()) {
-                    f.get();
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (Throwable e) {
-                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
-            }
 
-        });
+        CLIENTS.remove(this.clientId, this);
+        IOException closed = new IOException("Client " + this.clientId + " is closed");
+        this.pendingServerRequests.failAll(closed);
 
-        try {
-            this.processClientRequestExecutor.shutdownNow();
-        } catch (Throwable e) {
-            log.error("DebugLib: Error happen when shutdown process client executor service" + e.getMessage(), e);
+        // requests of the session sent through this lane won't be answered anymore
+        ClientHandler primary = this.session;
+        if (primary != null) {
+            this.carriedRequests.forEach(messageId -> primary.pendingServerRequests.fail(messageId, closed));
         }
 
+        this.connection.close();
+        this.streamAssembler.failAll();
+
         try {
-            this.processClientRequestExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            if (this.heartBeatFuture != null && !this.heartBeatFuture.isDone()) {
+                this.heartBeatFuture.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Throwable e) {
-            log.error("DebugLib: Timeout when shutdown process client executor service" + e.getMessage(), e);
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
         }
 
-        this.serverRequestId.forEach((key, value) -> {
+        if (this.ownExecutors) {
+            ExecutorService processClientRequestExecutor = (ExecutorService) this.processClientRequestExecutor;
+
             try {
-                synchronized (value) {
-                    value.notifyAll();
-                }
+                processClientRequestExecutor.shutdownNow();
             } catch (Throwable e) {
-                log.error("DebugLib: Error happen with ({}, {}) when notify object for closing", key, value);
-                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                log.error("DebugLib: Error happen when shutdown process client executor service" + e.getMessage(), e);
             }
-        });
-        // closing resources
-        if (this.dis != null) {
+
             try {
-                this.dis.close();
-            } catch (IOException e) {
-                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                processClientRequestExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (Throwable e) {
+                log.error("DebugLib: Timeout when shutdown process client executor service" + e.getMessage(), e);
             }
-        }
 
-        if (this.dos != null) {
-            try {
-                this.dos.close();
-            } catch (IOException e) {
-                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            if (this.executor instanceof ExecutorService) {
+                ((ExecutorService) this.executor).shutdown();
             }
         }
 
-        if (this.socket != null && !this.socket.isClosed()) {
+        log.info("DebugLib: Connection closed");
+
+        this.closeListeners.forEach(listener -> {
             try {
-                this.socket.close();
-            } catch (IOException e) {
+                listener.run();
+            } catch (Throwable e) {
                 log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
             }
-        }
+        });
     }
 
     public boolean isRunning() {
         return this.status == Status.RUNNING;
     }
 
+    /**
+     * @return false while the client misses heart beats, it gets no new requests then
+     */
+    public boolean isHealthy() {
+        return this.healthy;
+    }
+
+    public RttEstimator getRtt() {
+        return this.rtt;
+    }
+
     public Status getStatus() {
         return this.status;
     }
@@ -379,31 +505,175 @@ public class ClientHandler extends Thread implements AutoCloseable {
         return clientId.hashCode();
     }
 
-    private ServerClientMessage pollMessageFromQueue(BlockingQueue<ServerClientMessage> queue) {
-        try {
-            return queue.poll(POLL_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt();
+    /**
+     * @return the capabilities of the client this server supports too, each one is turned on for this client
+     */
+    private List<String> acceptCapabilities(List<String> clientCapabilities) {
+        List<String> accepted = new ArrayList<>();
+
+        if (clientCapabilities == null) {
+            return accepted;
+        }
+
+        if (clientCapabilities.contains(Constants.CAPABILITY_DEFLATE) && this.remoteDebugServerConfig.isEnableCompression()) {
+            this.connection.setCompressionThreshold(this.remoteDebugServerConfig.getCompressionThresholdInByte());
+            accepted.add(Constants.CAPABILITY_DEFLATE);
+        }
+
+        if (clientCapabilities.contains(Constants.CAPABILITY_FILE_SYNC)) {
+            accepted.add(Constants.CAPABILITY_FILE_SYNC);
+        }
+
+        if (clientCapabilities.contains(Constants.CAPABILITY_FLOW_CONTROL)) {
+            this.streamAssembler.enableFlowControl();
+            accepted.add(Constants.CAPABILITY_FLOW_CONTROL);
+        }
+
+        if (clientCapabilities.contains(Constants.CAPABILITY_LANES)) {
+            accepted.add(Constants.CAPABILITY_LANES);
+        }
+
+        if (clientCapabilities.contains(Constants.CAPABILITY_RAW_BODY)) {
+            accepted.add(Constants.CAPABILITY_RAW_BODY);
+        }
+
+        if (clientCapabilities.contains(Constants.CAPABILITY_MULTI_VALUE_HEADERS)) {
+            accepted.add(Constants.CAPABILITY_MULTI_VALUE_HEADERS);
+        }
+
+        // the client lists codecs in its order of preference, the answer to HELLO itself still goes in JSON
+        Optional<MessageCodec> codec = clientCapabilities.stream()
+                .map(MessageCodecs::fromCapability)
+                .filter(Objects::nonNull)
+                .findFirst();
+
+        codec.ifPresent(agreed -> accepted.add(MessageCodecs.capabilityOf(agreed)));
+        this.clientCodec = MessageCodecs.forPeer(codec.orElse(MessageCodecs.JSON), accepted);
+
+        log.info("DebugLib: Client {} capabilities {}, accepted {}", this.clientId, clientCapabilities, accepted);
+        return accepted;
+    }
+
+    /**
+     * Makes this connection a lane of the client {@code sessionId}: the client sends requests of its own through
+     * it, and the session spreads its requests to the agent over its lanes. The lane closes with the session.
+     *
+     * @return false if there is no such running client, or it is a lane itself
+     */
+    private boolean joinSession(String sessionId) {
+        ClientHandler primary = sessionId == null ? null : CLIENTS.get(sessionId);
+
+        if (primary == null || primary == this || primary.session != null || !primary.isRunning()) {
+            log.error("DebugLib: Client {} cannot join unknown session {}", this.clientId, sessionId);
+            return false;
+        }
+
+        this.session = primary;
+        this.clientName = primary.clientName;
+        primary.lanes.add(this);
+        primary.addCloseListener(this::closeAsync);
+        this.addCloseListener(() -> primary.lanes.remove(this));
+
+        log.info("DebugLib: Client {} joined session [{}][{}] as lane {}", this.clientId, primary.clientName, sessionId, primary.lanes.size());
+        return true;
+    }
+
+    /**
+     * @return the least busy lane to send a request to the agent through, this connection if the agent opened no lane
+     */
+    private ClientHandler nextLane() {
+        ClientHandler next = this;
+        int nextLoad = Integer.MAX_VALUE;
+
+        for (ClientHandler lane : this.lanes) {
+            int load = lane.inFlight.get() + lane.streamAssembler.openStreams();
+
+            if (lane.isRunning() && lane.healthy && load < nextLoad) {
+                next = lane;
+                nextLoad = load;
+            }
         }
-        return null;
+        return next;
     }
 
-    private HttpResponseInfo executeClientHttpRequest(HttpRequestInfo httpRequestInfo) {
-        HttpResponseInfo responseInfo = HttpUtils.executeHttpRequestByRest(
+    private void executeClientHttpRequest(HttpRequestInfo httpRequestInfo, String messageId) {
+        HttpUtils.streamHttpRequestByRest(
                 httpRequestInfo.getUri(),
                 null,
                 httpRequestInfo.getMethod(),
                 httpRequestInfo.getHeaders(),
-                httpRequestInfo.getPayload()
+                httpRequestInfo.getBody(),
+                responseInfo -> {
+                    ServerClientMessage head = ServerClientMessage.builder()
+                            .id(messageId)
+                            .type(ServerClientMessage.Type.RESPONSE)
+                            .response(MessageResponse.builder().status(HttpStatus.OK.value()).build())
+                            .build();
+
+                    try {
+                        DebugUtils.sendHttpResponseInfo(head, responseInfo, this.clientWireFormat, this.clientCodec, this.streamAssembler, this::sendPaced);
+                    } catch (Throwable e) {
+                        this.responseFailed(head, e);
+                    }
+                }
         );
+    }
+
+    /**
+     * Makes sure the client does not wait for a response that failed to go out: an error response when nothing was
+     * sent yet, nothing more when the stream was aborted, and closing the tunnel when neither reached the client.
+     */
+    private void responseFailed(ServerClientMessage response, Throwable cause) {
+        log.error(LOG_ERROR_PREFIX + "Response " + response.getId() + " not sent, " + cause.getMessage(), cause);
+
+        if (response.getFlags() != 0) {
+            if (cause.getSuppressed().length > 0) {
+                // the abort chunk did not go out either
+                this.connection.close();
+            }
+            return;
+        }
+
+        try {
+            this.connection.send(ServerClientMessage.builder()
+                    .id(response.getId())
+                    .type(ServerClientMessage.Type.RESPONSE)
+                    .response(MessageResponse.builder()
+                            .status(HttpStatus.INTERNAL_SERVER_ERROR.value())
+                            .data(String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8))
+                            .build())
+                    .build(), this.clientWireFormat);
+        } catch (RuntimeException e) {
+            log.error(LOG_ERROR_PREFIX + "Error response " + response.getId() + " not sent either, closing the tunnel", e);
+            this.connection.close();
+        }
+    }
+
+    /**
+     * Queues the message, then waits for the socket to drain if too much is pending, so a streamed body is read
+     * from its source at the pace the client takes it.
+     */
+    private void sendPaced(ServerClientMessage message) {
+        this.connection.send(message, this.clientWireFormat);
 
-        return responseInfo;
+        try {
+            this.connection.awaitWritable(Constants.STREAM_MAX_PENDING_IN_BYTE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void closeAsync() {
-        CompletableFuture.runAsync(() -> this.close(), this.executor);
+        if (this.status != Status.STOPPED) {
+            CompletableFuture.runAsync(() -> this.close(), this.executor);
+        }
     }
 
+    /**
+     * Probes the client every {@code heartBeatIntervalMs} and measures the round trip. An answer later than the
+     * timeout derived from the round trips so far is a miss, the client is unhealthy from the first miss and closed
+     * after {@code heartBeatMaxMissed} in a row, which fails whatever still waits for it.
+     */
     private void startSendHeartBeat() {
         if (this.remoteDebugServerConfig.isEnableHeartBeat()) {
             this.heartBeatFuture = CompletableFuture.runAsync(() -> {
@@ -412,11 +682,32 @@ public class ClientHandler extends Thread implements AutoCloseable {
                     MessageRequest messageRequest = MessageRequest.builder()
                             .command(MessageRequest.Command.HEART_BEAT)
                             .build();
+                    int missed = 0;
 
                     while (!this.stop) {
+                        long timeOutInMs = this.rtt.getTimeoutMs();
+                        long sentAt = System.nanoTime();
+
                         try {
-                            this.sendMessageToClient(messageRequest, this.remoteDebugServerConfig.getHeartBeatTimeoutMs());
+                            this.sendMessageToClient(messageRequest, (int) timeOutInMs);
+                            this.rtt.sample((System.nanoTime() - sentAt) / 1_000_000.0);
+                            missed = 0;
+                            this.healthy = true;
                             Thread.sleep(this.remoteDebugServerConfig.getHeartBeatIntervalMs());
+                        } catch (TimeoutException e) {
+                            this.rtt.backOff();
+
+                            // other frames got through meanwhile, the client is alive and the answer only queued behind them
+                            missed = this.lastHeardNanos - sentAt > 0 ? 0 : missed + 1;
+                            this.healthy = missed == 0;
+
+                            log.warn("DebugLib: Client {} did not answer heart beat in {} ms, missed {} of {}, smoothed rtt {} ms",
+                                    this.clientId, timeOutInMs, missed, this.remoteDebugServerConfig.getHeartBeatMaxMissed(), Math.round(this.rtt.getSmoothedRttMs()));
+
+                            if (missed >= this.remoteDebugServerConfig.getHeartBeatMaxMissed()) {
+                                log.error("DebugLib: Client {} is unhealthy, closing it", this.clientId);
+                                break;
+                            }
                         } catch (Throwable e) {
                             log.error(LOG_ERROR_PREFIX + " HeartBeat check exception: " + e.getMessage(), e);
                             break;
@@ -434,53 +725,81 @@ public class ClientHandler extends Thread implements AutoCloseable {
         }
     }
 
-    private String sendMessageToClient(MessageRequest messageRequest, int timeOutInMs) throws Exception {
-        String messageId = "SERVER-" + UUID.randomUUID();
+    private ServerClientMessage sendMessageToClient(MessageRequest messageRequest, int timeOutInMs) throws Exception {
+        return join(this.sendMessageToClientAsync(this, messageRequest, timeOutInMs));
+    }
 
-        this.serverRequestId.put(messageId, messageId);
+    /**
+     * @param lane connection to send the request through, this one or one of its lanes, the answer comes back the same way
+     */
+    private CompletableFuture<ServerClientMessage> sendMessageToClientAsync(ClientHandler lane, MessageRequest messageRequest, int timeOutInMs) {
+        String messageId = "SERVER-" + UUID.randomUUID();
+        CompletableFuture<ServerClientMessage> response = this.pendingServerRequests.register(messageId, timeOutInMs);
 
         ServerClientMessage serverClientMessage = ServerClientMessage.builder()
                 .id(messageId)
                 .type(ServerClientMessage.Type.REQUEST)
                 .request(messageRequest)
                 .build();
-        this.messageToClientQueue.add(serverClientMessage);
 
         if (messageRequest.getCommand() != MessageRequest.Command.HEART_BEAT) {
             log.debug("DebugLib: Sending message to client {}", serverClientMessage);
+            log.info("DebugLib: Server request {}: Wait response", messageId);
         }
 
-        synchronized (messageId) {
-            try {
-                if (messageRequest.getCommand() != MessageRequest.Command.HEART_BEAT) {
-                    log.info("DebugLib: Server request {}: Wait response", messageId);
-                }
+        // booked before sending, a fast answer may complete the request before send returns
+        lane.inFlight.incrementAndGet();
 
-                int i = timeOutInMs / 500;
+        if (lane != this) {
+            lane.carriedRequests.add(messageId);
 
-                while (!this.stop && !this.responseForServerRequest.containsKey(messageId) && i-- > 0)
-                    messageId.wait(500);
-
-            } catch (InterruptedException ignored) {
-                Thread.currentThread().interrupt();
+            // added before the check, so either the closing lane fails the request or it is failed here
+            if (lane.status == Status.STOPPED) {
+                lane.inFlight.decrementAndGet();
+                lane.carriedRequests.remove(messageId);
+                this.pendingServerRequests.cancel(messageId);
+                return CompletableFuture.failedFuture(new IOException("Lane " + lane.clientId + " is closed"));
             }
+        }
 
-            if (!this.responseForServerRequest.containsKey(messageId)) {
-                log.error("DebugLib: Server request {}: timeout after {} minutes for request [{}]", messageId, Math.round((timeOutInMs / 1000.0 / 60.0) * 100.0) / 100.0, messageRequest);
-                throw new TimeoutException("Timeout after " + timeOutInMs + " ms");
-            } else {
-                ServerClientMessage message = this.responseForServerRequest.get(messageId);
+        try {
+            lane.connection.send(serverClientMessage, lane.clientWireFormat);
+        } catch (FlowControlException e) {
+            log.error("DebugLib: Server request {}: not sent, {}", messageId, e.getMessage());
+            lane.inFlight.decrementAndGet();
+            lane.carriedRequests.remove(messageId);
+            this.pendingServerRequests.cancel(messageId);
+            return CompletableFuture.failedFuture(e);
+        }
 
-                if (messageRequest.getCommand() != MessageRequest.Command.HEART_BEAT) {
-                    log.info("DebugLib: Server request {}: Received response with: {}", messageId, message);
-                }
+        return response.handle((message, e) -> {
+            lane.inFlight.decrementAndGet();
+            lane.carriedRequests.remove(messageId);
 
-                if (!messageId.equals(message.getId())) {
-                    throw new Exception("Unexpected error");
-                }
+            if (e instanceof TimeoutException && messageRequest.getCommand() == MessageRequest.Command.HEART_BEAT) {
+                throw new CompletionException(e);
+            } else if (e instanceof TimeoutException) {
+                log.error("DebugLib: Server request {}: timeout after {} minutes for request [{}]", messageId, Math.round((timeOutInMs / 1000.0 / 60.0) * 100.0) / 100.0, messageRequest);
+                throw new CompletionException(new TimeoutException("Timeout after " + timeOutInMs + " ms"));
+            } else if (e != null) {
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
 
-                return message.getResponse().getDataBase64();
+            if (messageRequest.getCommand() != MessageRequest.Command.HEART_BEAT) {
+                log.info("DebugLib: Server request {}: Received response with: {}", messageId, message);
             }
+            return message;
+        });
+    }
+
+    /**
+     * Waits for the future and throws what failed it rather than an {@link ExecutionException}
+     */
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
         }
     }
 }
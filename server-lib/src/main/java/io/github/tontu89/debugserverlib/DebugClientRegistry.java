@@ -0,0 +1,94 @@
+package io.github.tontu89.debugserverlib;
+
+import io.github.tontu89.debugserverlib.model.HttpRequestInfo;
+import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
+import io.github.tontu89.debugserverlib.model.RequestMatchContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
+import static io.github.tontu89.debugserverlib.utils.Constants.MAX_REQUEST_TIME_OUT_MS;
+import static io.github.tontu89.debugserverlib.utils.Constants.SPRING_PROFILE_NAME;
+
+/**
+ * Debug clients connected to this server, and which of them a request goes to. Shared by whatever takes requests in:
+ * the servlet filter, or a filter of a non blocking web stack through {@link #forwardToMatchingClientAsync(HttpRequestInfo)}.
+ */
+@Profile(SPRING_PROFILE_NAME)
+@Component
+@Slf4j
+public class DebugClientRegistry {
+    private final CopyOnWriteArrayList<ClientHandler> debugClientHandlers = new CopyOnWriteArrayList<>();
+
+    private volatile FilterPatternIndex filterPatternIndex = FilterPatternIndex.build(List.of());
+
+    public void addDebugClient(ClientHandler debugClientHandler) {
+        log.info("DebugLib: Add new client [{}][{}]", debugClientHandler.getClientName(), debugClientHandler.getClientId());
+        this.debugClientHandlers.add(debugClientHandler);
+        debugClientHandler.addFilterChangeListener(this::rebuildFilterPatternIndex);
+        // no watcher thread per client, the handler calls back once it is closed
+        debugClientHandler.addCloseListener(() -> {
+            try {
+                log.info("DebugLib: Remove client [{}][{}] with status {}", debugClientHandler.getClientName(), debugClientHandler.getClientId(), debugClientHandler.getStatus());
+                this.debugClientHandlers.remove(debugClientHandler);
+                this.rebuildFilterPatternIndex();
+            } catch (Throwable e) {
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            }
+        });
+        this.rebuildFilterPatternIndex();
+    }
+
+    /**
+     * @param request built once, every client reads the same decoded body and headers
+     * @return the first running client whose filters match the request
+     */
+    public Optional<ClientHandler> findMatchingClient(RequestMatchContext request) {
+        try {
+            Optional<ClientHandler> debugClientHandler = this.filterPatternIndex.findMatchingClient(request);
+
+            debugClientHandler.ifPresent(c -> log.info("DebugLib: URL {} matched. Will be forwarding to client [{}][{}]", request.getUri(), c.getClientName(), c.getClientId()));
+            return debugClientHandler;
+        } catch (Throwable e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Clients come, go and change their filters rarely compared to how often requests are matched, so each change
+     * builds a new index and requests read whichever index is current.
+     */
+    private synchronized void rebuildFilterPatternIndex() {
+        this.filterPatternIndex = FilterPatternIndex.build(this.debugClientHandlers);
+
+        log.debug("DebugLib: Indexed {} filter patterns of {} clients", this.filterPatternIndex.getPatternCount(), this.debugClientHandlers.size());
+    }
+
+    /**
+     * Matches and forwards without blocking the calling thread, the future completes on the thread reading the client
+     * connection.
+     *
+     * @return completes empty if no client matches the request
+     */
+    public CompletableFuture<Optional<HttpResponseInfo>> forwardToMatchingClientAsync(HttpRequestInfo requestInfo) {
+        try {
+            RequestMatchContext request = new RequestMatchContext(requestInfo);
+            Optional<ClientHandler> debugClientHandler = this.findMatchingClient(request);
+
+            if (debugClientHandler.isEmpty()) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+
+            return debugClientHandler.get().forwardHttpRequestToClientAsync(requestInfo, MAX_REQUEST_TIME_OUT_MS).thenApply(Optional::of);
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
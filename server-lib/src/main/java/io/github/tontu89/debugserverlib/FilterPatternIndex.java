@@ -0,0 +1,270 @@
+package io.github.tontu89.debugserverlib;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import io.github.tontu89.debugserverlib.model.FilterRequestMatchPattern;
+import io.github.tontu89.debugserverlib.model.RequestMatchContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Filters of every client, indexed by what a request must have for them to match: a uri prefix, a method, a header, a
+ * value in the json body.
+ * A request is only checked against the filters it can match, plus those the index cannot tell anything about, so the
+ * cost of matching follows the filters that are relevant rather than how many clients and filters there are.
+ * <p>
+ * Immutable, rebuilt whenever a client comes, goes or changes its filters.
+ */
+@Slf4j
+class FilterPatternIndex {
+    private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+    private static final String REGEX_QUANTIFIERS = "*+?{";
+
+    private final List<ClientHandler> clients;
+    private final UriPrefixNode uriPrefixes;
+    private final Map<String, List<Entry>> methods;
+    private final Map<String, List<Entry>> headers;
+    private final Map<String, Map<String, List<Entry>>> headerValues;
+    private final Map<String, PayloadPath> payloadValues;
+    private final List<Entry> unindexed;
+    private final int patternCount;
+
+    private FilterPatternIndex(List<ClientHandler> clients) {
+        this.clients = clients;
+        this.uriPrefixes = new UriPrefixNode();
+        this.methods = new HashMap<>();
+        this.headers = new HashMap<>();
+        this.headerValues = new HashMap<>();
+        this.payloadValues = new HashMap<>();
+        this.unindexed = new ArrayList<>();
+
+        int count = 0;
+        for (int i = 0; i < clients.size(); ++i) {
+            for (FilterRequestMatchPattern pattern : clients.get(i).getMatchPatterns()) {
+                this.add(new Entry(i, pattern));
+                ++count;
+            }
+        }
+        this.patternCount = count;
+    }
+
+    /**
+     * @param clients in the order they are asked, the first matching one gets the request
+     */
+    static FilterPatternIndex build(List<ClientHandler> clients) {
+        return new FilterPatternIndex(List.copyOf(clients));
+    }
+
+    int getPatternCount() {
+        return this.patternCount;
+    }
+
+    /**
+     * @return the first client, in the order the index was built with, taking requests and with a matching filter
+     */
+    Optional<ClientHandler> findMatchingClient(RequestMatchContext request) {
+        List<List<Entry>> candidateLists = new ArrayList<>();
+
+        this.uriPrefixes.collect(request.getUri(), candidateLists);
+        Optional.ofNullable(request.getMethod()).map(this.methods::get).ifPresent(candidateLists::add);
+        if (!this.headers.isEmpty() || !this.headerValues.isEmpty()) {
+            request.getHeaders().forEach((name, value) -> {
+                Optional.ofNullable(this.headers.get(name)).ifPresent(candidateLists::add);
+                Optional.ofNullable(this.headerValues.get(name)).map(values -> values.get(value)).ifPresent(candidateLists::add);
+            });
+        }
+        if (!this.payloadValues.isEmpty()) {
+            this.collectPayloadValues(request, candidateLists);
+        }
+        candidateLists.add(this.unindexed);
+
+        List<Entry> candidates = new ArrayList<>();
+        candidateLists.forEach(candidates::addAll);
+        // clients are asked in the order the index was built with, whichever list their filters came from
+        candidates.sort(Comparator.comparingInt(entry -> entry.clientIndex));
+
+        int skippedClient = -1;
+        for (Entry entry : candidates) {
+            if (entry.clientIndex == skippedClient) {
+                continue;
+            }
+
+            ClientHandler client = this.clients.get(entry.clientIndex);
+
+            if (!client.isTakingRequests()) {
+                skippedClient = entry.clientIndex;
+            } else if (entry.pattern.isMatch(request)) {
+                return Optional.of(client);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Every indexed path is read once from the body, however many filters look for a value there
+     */
+    private void collectPayloadValues(RequestMatchContext request, List<List<Entry>> candidateLists) {
+        DocumentContext payloadDocument = request.getPayloadDocument();
+
+        if (payloadDocument == null) {
+            return;
+        }
+
+        for (PayloadPath payloadPath : this.payloadValues.values()) {
+            try {
+                Optional.ofNullable(payloadDocument.read(payloadPath.path, String.class))
+                        .map(payloadPath.entries::get)
+                        .ifPresent(candidateLists::add);
+            } catch (Exception e) {
+                log.debug("DebugLib: No payload value at [{}], {}", payloadPath.path.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    private void add(Entry entry) {
+        FilterRequestMatchPattern pattern = entry.pattern;
+        String regex = pattern.getMatchPattern();
+
+        switch (pattern.getTarget()) {
+            case URI:
+                String prefix = literalPrefix(regex);
+                if (!prefix.isEmpty()) {
+                    this.uriPrefixes.add(prefix, entry);
+                    return;
+                }
+                break;
+            case METHOD:
+                List<String> methods = literalAlternatives(regex);
+                if (methods != null) {
+                    methods.forEach(method -> this.methods.computeIfAbsent(method, k -> new ArrayList<>()).add(entry));
+                    return;
+                }
+                break;
+            case HEADER:
+                List<String> values = literalAlternatives(regex);
+                if (values != null) {
+                    Map<String, List<Entry>> byValue = this.headerValues.computeIfAbsent(pattern.getTargetKey(), k -> new HashMap<>());
+                    values.forEach(value -> byValue.computeIfAbsent(value, k -> new ArrayList<>()).add(entry));
+                } else {
+                    // a header the request does not have reads as null, which no pattern matches
+                    this.headers.computeIfAbsent(pattern.getTargetKey(), k -> new ArrayList<>()).add(entry);
+                }
+                return;
+            case PAYLOAD_TREE:
+                List<String> payloadValues = literalAlternatives(regex);
+                if (payloadValues != null) {
+                    PayloadPath payloadPath = this.payloadValues.computeIfAbsent(pattern.getJsonPath().trim(), k -> new PayloadPath(pattern.getPayloadPathObject()));
+                    payloadValues.forEach(value -> payloadPath.entries.computeIfAbsent(value, k -> new ArrayList<>()).add(entry));
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        this.unindexed.add(entry);
+    }
+
+    /**
+     * Text every match of the regex starts with, empty if the regex can start with anything
+     */
+    static String literalPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+
+        int start = regex.startsWith("^") ? 1 : 0;
+        int end = start;
+
+        while (end < regex.length() && REGEX_META_CHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            ++end;
+        }
+
+        // the last literal may be optional or repeated
+        if (end < regex.length() && end > start && REGEX_QUANTIFIERS.indexOf(regex.charAt(end)) >= 0) {
+            --end;
+        }
+        return regex.substring(start, end);
+    }
+
+    /**
+     * @return the texts of a regex made of nothing but plain text and |, null for any other regex
+     */
+    static List<String> literalAlternatives(String regex) {
+        List<String> texts = new ArrayList<>();
+
+        for (String text : regex.split("\\|", -1)) {
+            if (text.isEmpty()) {
+                return null;
+            }
+            for (int i = 0; i < text.length(); ++i) {
+                if (REGEX_META_CHARACTERS.indexOf(text.charAt(i)) >= 0) {
+                    return null;
+                }
+            }
+            texts.add(text);
+        }
+        return texts;
+    }
+
+    private static class Entry {
+        private final int clientIndex;
+        private final FilterRequestMatchPattern pattern;
+
+        private Entry(int clientIndex, FilterRequestMatchPattern pattern) {
+            this.clientIndex = clientIndex;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * Filters looking for a plain value at one path below $.payload, by that value
+     */
+    private static class PayloadPath {
+        private final JsonPath path;
+        private final Map<String, List<Entry>> entries = new HashMap<>();
+
+        private PayloadPath(JsonPath path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * A node per character of the indexed prefixes, a request uri walks down as far as it can and picks up the
+     * filters of every node on the way
+     */
+    private static class UriPrefixNode {
+        private final Map<Character, UriPrefixNode> children = new HashMap<>();
+        private final List<Entry> entries = new ArrayList<>();
+
+        private void add(String prefix, Entry entry) {
+            UriPrefixNode node = this;
+
+            for (int i = 0; i < prefix.length(); ++i) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), k -> new UriPrefixNode());
+            }
+            node.entries.add(entry);
+        }
+
+        private void collect(String uri, List<List<Entry>> candidateLists) {
+            if (uri == null) {
+                return;
+            }
+
+            UriPrefixNode node = this;
+
+            for (int i = 0; i < uri.length() && node != null; ++i) {
+                node = node.children.get(uri.charAt(i));
+
+                if (node != null && !node.entries.isEmpty()) {
+                    candidateLists.add(node.entries);
+                }
+            }
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package io.github.tontu89.debugserverlib;
 
 import io.github.tontu89.debugserverlib.config.RemoteDebugServerConfig;
-import io.github.tontu89.debugserverlib.filter.DebugServerSpringFilter;
+import io.github.tontu89.debugserverlib.transport.ClientConnection;
+import io.github.tontu89.debugserverlib.transport.NioDebugServer;
+import io.github.tontu89.debugserverlib.transport.SocketClientConnection;
+import io.github.tontu89.debugserverlib.transport.TransportMode;
+import io.github.tontu89.debugserverlib.transport.TunnelBudget;
+import io.github.tontu89.debugserverlib.utils.ExecutorUtils;
 import io.github.tontu89.debugserverlib.utils.HttpsTrustManager;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -25,15 +28,21 @@ import static io.github.tontu89.debugserverlib.utils.Constants.SPRING_PROFILE_NA
 @Component
 @Slf4j
 public class RemoteDebugServer implements AutoCloseable {
-    private boolean stop;
+    private volatile boolean stop;
 
     private RemoteDebugServerConfig remoteDebugServerConfig;
-    private DebugServerSpringFilter debugServerSpringFilter;
+    private DebugClientRegistry debugClientRegistry;
     private ServerSocket server = null;
+    private NioDebugServer nioServer = null;
+    private TunnelBudget tunnelBudget;
+    private ClientExecutors clientExecutors;
 
-    public RemoteDebugServer(DebugServerSpringFilter debugServerSpringFilter, RemoteDebugServerConfig remoteDebugServerConfig, Environment env) {
-        this.debugServerSpringFilter = debugServerSpringFilter;
+    public RemoteDebugServer(DebugClientRegistry debugClientRegistry, RemoteDebugServerConfig remoteDebugServerConfig, Environment env) {
+        this.debugClientRegistry = debugClientRegistry;
         this.remoteDebugServerConfig = remoteDebugServerConfig;
+        this.tunnelBudget = new TunnelBudget(remoteDebugServerConfig.getMaxTunnelBufferInByte(), remoteDebugServerConfig.getConnectionWindowInByte(),
+                remoteDebugServerConfig.getFlowControlPolicy(), remoteDebugServerConfig.getFlowControlBlockTimeoutMs());
+        this.clientExecutors = new ClientExecutors(remoteDebugServerConfig);
 
         if (this.isEnableRemoteDebug(env)) {
             log.info("DebugLib: Prepare to load debug server");
@@ -45,45 +54,104 @@ public class RemoteDebugServer implements AutoCloseable {
         try {
             HttpsTrustManager.allowAllSSL();
 
-            Socket socket = null;
-
-            // Try to start on default port
-            if (!this.startServer(this.remoteDebugServerConfig.getPort())) {
-
-                // Try to start on random port
-                this.startServer(null);
+            if (this.remoteDebugServerConfig.getTransportMode() == TransportMode.NIO) {
+                this.startNio();
+            } else {
+                this.startBlocking();
             }
+        } catch (Throwable e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+    }
 
-            log.info("DebugLib: Started debug server");
+    private void startBlocking() {
+        Socket socket = null;
 
-            while (!this.stop) {
-                try {
-                    // socket object to receive incoming client requests
-                    socket = server.accept();
+        // Try to start on default port
+        if (!this.startServer(this.remoteDebugServerConfig.getPort())) {
 
-                    log.info("DebugLib: A new client is connected : " + socket);
+            // Try to start on random port
+            this.startServer(null);
+        }
 
-                    // obtaining input and out streams
-                    DataInputStream dis = new DataInputStream(socket.getInputStream());
-                    DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+        log.info("DebugLib: Started debug server, {} execution", ExecutorUtils.effective(this.remoteDebugServerConfig.getExecutionMode()));
 
-                    log.info("DebugLib: Assigning new thread for this client");
+        while (!this.stop) {
+            try {
+                // socket object to receive incoming client requests
+                socket = server.accept();
 
-                    // create a new thread object
-                    ClientHandler t = new ClientHandler(this.remoteDebugServerConfig, dis, dos, socket);
+                log.info("DebugLib: A new client is connected : " + socket);
 
-                    // Invoking the start() method
-                    t.start();
+                if (!this.clientExecutors.admit()) {
+                    closeSocket(socket);
+                    continue;
+                }
 
-                    this.debugServerSpringFilter.addDebugClient(t);
+                SocketClientConnection connection;
 
+                try {
+                    connection = new SocketClientConnection(socket, this.remoteDebugServerConfig.getFlushMaxLatencyMicros(), this.tunnelBudget);
                 } catch (Throwable e) {
-                    closeSocket(socket);
-                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                    this.clientExecutors.release();
+                    throw e;
                 }
+
+                this.startClient(connection);
+            } catch (Throwable e) {
+                closeSocket(socket);
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
             }
+        }
+    }
+
+    /**
+     * One selector thread for every client.
+     */
+    private void startNio() throws IOException {
+        this.nioServer = new NioDebugServer(connection -> {
+            if (!this.clientExecutors.admit()) {
+                connection.close();
+                return;
+            }
+
+            try {
+                this.startClient(connection);
+            } catch (Throwable e) {
+                connection.close();
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            }
+        }, this.tunnelBudget);
+
+        this.nioServer.bind(this.remoteDebugServerConfig.getPort());
+
+        log.info("DebugLib: Started debug server in NIO mode, {} execution", ExecutorUtils.effective(this.remoteDebugServerConfig.getExecutionMode()));
+
+        this.nioServer.run();
+    }
+
+    /**
+     * Runs the client on the pools all clients share, the connection was admitted by {@link ClientExecutors#admit()}
+     */
+    private void startClient(ClientConnection connection) {
+        ClientHandler t;
+
+        try {
+            t = new ClientHandler(this.remoteDebugServerConfig, connection, this.clientExecutors.getIoExecutor(), this.clientExecutors.newClientExecutor());
         } catch (Throwable e) {
-            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            this.clientExecutors.release();
+            throw e;
+        }
+
+        t.addCloseListener(this.clientExecutors::release);
+
+        this.debugClientRegistry.addDebugClient(t);
+
+        try {
+            t.start();
+        } catch (Throwable e) {
+            t.close();
+            throw e;
         }
     }
 
@@ -91,6 +159,12 @@ public class RemoteDebugServer implements AutoCloseable {
     public void close() {
         this.stop = true;
 
+        if (this.nioServer != null) {
+            this.nioServer.close();
+        }
+
+        this.clientExecutors.close();
+
         if (this.server != null && !this.server.isClosed()) {
             try {
                 this.server.close();
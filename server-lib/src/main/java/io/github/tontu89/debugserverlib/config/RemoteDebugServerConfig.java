@@ -1,5 +1,9 @@
 package io.github.tontu89.debugserverlib.config;
 
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import io.github.tontu89.debugserverlib.transport.FlowControlPolicy;
+import io.github.tontu89.debugserverlib.transport.TransportMode;
+import io.github.tontu89.debugserverlib.utils.Constants;
 import lombok.Data;
 import lombok.ToString;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -16,5 +20,19 @@ public class RemoteDebugServerConfig {
     private int numberOfThreadPerClient;
     private int heartBeatIntervalMs;
     private int heartBeatTimeoutMs;
+    private int heartBeatMinTimeoutMs = Constants.HEART_BEAT_MIN_TIME_OUT_MS;
+    private int heartBeatMaxMissed = Constants.HEART_BEAT_MAX_MISSED;
     private boolean enableHeartBeat;
+    private TransportMode transportMode = TransportMode.BLOCKING;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private int maxConnections = Constants.MAX_CONNECTIONS;
+    private int requestThreads = Constants.REQUEST_THREADS;
+    private boolean enableCompression = true;
+    private int compressionThresholdInByte = Constants.COMPRESSION_THRESHOLD_IN_BYTE;
+    private int flushMaxLatencyMicros = 0;
+    private boolean enableAsyncForwarding = true;
+    private FlowControlPolicy flowControlPolicy = FlowControlPolicy.BLOCK;
+    private int flowControlBlockTimeoutMs = Constants.FLOW_CONTROL_BLOCK_TIME_OUT_MS;
+    private long connectionWindowInByte = Constants.CONNECTION_WINDOW_IN_BYTE;
+    private long maxTunnelBufferInByte = Constants.TUNNEL_BUFFER_MAX_IN_BYTE;
 }
@@ -1,12 +1,18 @@
 package io.github.tontu89.debugserverlib.filter;
 
 import io.github.tontu89.debugserverlib.ClientHandler;
+import io.github.tontu89.debugserverlib.DebugClientRegistry;
+import io.github.tontu89.debugserverlib.config.RemoteDebugServerConfig;
 import io.github.tontu89.debugserverlib.filter.requestwrapper.CachedBodyHttpServletRequest;
 import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
+import io.github.tontu89.debugserverlib.model.RequestMatchContext;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -16,15 +22,15 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
+import static io.github.tontu89.debugserverlib.utils.Constants.MAX_REQUEST_TIME_OUT_MS;
 import static io.github.tontu89.debugserverlib.utils.Constants.SPRING_PROFILE_NAME;
 
 
@@ -32,8 +38,13 @@ import static io.github.tontu89.debugserverlib.utils.Constants.SPRING_PROFILE_NA
 @Component
 @Slf4j
 public class DebugServerSpringFilter implements Filter {
-    private final Executor executor = Executors.newCachedThreadPool();
-    private final CopyOnWriteArrayList<ClientHandler> debugClientHandlers = new CopyOnWriteArrayList<>();
+    private final DebugClientRegistry debugClientRegistry;
+    private final RemoteDebugServerConfig remoteDebugServerConfig;
+
+    public DebugServerSpringFilter(DebugClientRegistry debugClientRegistry, RemoteDebugServerConfig remoteDebugServerConfig) {
+        this.debugClientRegistry = debugClientRegistry;
+        this.remoteDebugServerConfig = remoteDebugServerConfig;
+    }
 
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
@@ -47,25 +58,24 @@ public class DebugServerSpringFilter implements Filter {
             CachedBodyHttpServletRequest cachedBodyHttpServletRequest = new CachedBodyHttpServletRequest(httpServletRequest);
             HttpServletResponse res = (HttpServletResponse) servletResponse;
 
-            // Remove transfer-encoding and content-encoding before further processing
-            HttpResponseInfo.removeEncodingHeader(cachedBodyHttpServletRequest.getHeaders());
+            // The body is forwarded as the raw bytes it came in, still in its content-encoding. Only the
+            // transfer-encoding does not apply to it anymore
+            cachedBodyHttpServletRequest.getHeaders().remove("transfer-encoding");
 
             log.info("DebugLib: Check matching request for {}", uri);
 
             try {
-                for (int i = 0; i < this.debugClientHandlers.size(); ++i) {
-                    ClientHandler debugClientHandler = this.debugClientHandlers.get(i);
-
-                    if (debugClientHandler.isRunning() && debugClientHandler.isMatch(cachedBodyHttpServletRequest)) {
-                        log.info("DebugLib: URL {} matched. Will be forwarding to client [{}][{}]", cachedBodyHttpServletRequest.getRequestURI(), debugClientHandler.getClientName(), debugClientHandler.getClientId());
-                        matched = true;
-                        HttpResponseInfo clientResponse = debugClientHandler.forwardHttpRequestToClient(cachedBodyHttpServletRequest);
-                        Optional.ofNullable(clientResponse.getHeaders()).ifPresent(headers -> headers.forEach((name, value) -> res.setHeader(name, value)));
-                        res.setStatus(clientResponse.getHttpStatus());
-                        byte[] responseData = clientResponse.getPayload().getBytes(StandardCharsets.UTF_8);
-                        res.setContentLength(responseData.length);
-                        res.getOutputStream().write(responseData);
-                        break;
+                // built once, matched against every client and forwarded as is
+                RequestMatchContext request = RequestMatchContext.fromHttpRequest(cachedBodyHttpServletRequest);
+                Optional<ClientHandler> debugClientHandler = this.debugClientRegistry.findMatchingClient(request);
+
+                if (debugClientHandler.isPresent()) {
+                    matched = true;
+
+                    if (this.remoteDebugServerConfig.isEnableAsyncForwarding() && servletRequest.isAsyncSupported()) {
+                        this.forwardAsync(debugClientHandler.get(), request, cachedBodyHttpServletRequest, servletRequest, res);
+                    } else {
+                        writeResponse(debugClientHandler.get().forwardHttpRequestToClient(request.getRequestInfo(), MAX_REQUEST_TIME_OUT_MS), res);
                     }
                 }
             } catch (Throwable e) {
@@ -80,24 +90,117 @@ public class DebugServerSpringFilter implements Filter {
         }
     }
 
-    public void addDebugClient(ClientHandler debugClientHandler) {
-        log.info("DebugLib: Add new client [{}][{}]", debugClientHandler.getClientName(), debugClientHandler.getClientId());
-        this.debugClientHandlers.add(debugClientHandler);
-        CompletableFuture.runAsync(() -> {
-            synchronized (debugClientHandler) {
-                try {
-                    debugClientHandler.wait();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+    /**
+     * Frees the container thread while the client works on the request, the response is written from a container
+     * thread once the client answered, or the request timed out.
+     */
+    private void forwardAsync(ClientHandler debugClientHandler, RequestMatchContext request, CachedBodyHttpServletRequest cachedBodyHttpServletRequest, ServletRequest servletRequest, HttpServletResponse res) throws Exception {
+        AsyncContext asyncContext = servletRequest.startAsync(cachedBodyHttpServletRequest, res);
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        asyncContext.setTimeout(MAX_REQUEST_TIME_OUT_MS);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    log.error("DebugLib: URL {} timed out waiting for client [{}][{}]", cachedBodyHttpServletRequest.getRequestURI(), debugClientHandler.getClientName(), debugClientHandler.getClientId());
+                    res.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                    asyncContext.complete();
                 }
-                try {
-                    log.info("DebugLib: Remove client [{}][{}] with status {}", debugClientHandler.getClientName(), debugClientHandler.getClientId(), debugClientHandler.getStatus());
-                    this.debugClientHandlers.remove(debugClientHandler);
-                } catch (Throwable e) {
-                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    log.error(LOG_ERROR_PREFIX + event.getThrowable().getMessage(), event.getThrowable());
+                    asyncContext.complete();
                 }
             }
-        }, executor);
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        CompletableFuture<HttpResponseInfo> clientResponse;
+
+        try {
+            clientResponse = debugClientHandler.forwardHttpRequestToClientAsync(request.getRequestInfo(), MAX_REQUEST_TIME_OUT_MS);
+        } catch (Throwable e) {
+            done.set(true);
+            asyncContext.complete();
+            throw e;
+        }
+
+        clientResponse.whenComplete((responseInfo, e) -> {
+            if (!done.compareAndSet(false, true)) {
+                // timed out meanwhile, nobody reads the body anymore
+                closePayloadStream(responseInfo);
+                return;
+            }
+
+            try {
+                // the future completes on the thread reading the client connection, the response is written elsewhere
+                asyncContext.start(() -> {
+                    try {
+                        if (e != null) {
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                            log.error(LOG_ERROR_PREFIX + cause.getMessage(), cause);
+                        } else {
+                            writeResponse(responseInfo, res);
+                        }
+                    } catch (Throwable e1) {
+                        log.error(LOG_ERROR_PREFIX + e1.getMessage(), e1);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                });
+            } catch (Throwable e1) {
+                log.error(LOG_ERROR_PREFIX + e1.getMessage(), e1);
+                closePayloadStream(responseInfo);
+                asyncContext.complete();
+            }
+        });
+    }
+
+    private static void writeResponse(HttpResponseInfo clientResponse, HttpServletResponse res) throws IOException {
+        boolean streamed = clientResponse.getPayloadStream() != null;
+        Optional.ofNullable(clientResponse.getHeaders()).ifPresent(headers -> headers.forEach((name, value) -> {
+            // a streamed body is written out as it arrives, let the container pick the framing
+            if (!streamed || !"content-length".equals(name)) {
+                res.addHeader(name, value);
+            }
+        }));
+        res.setStatus(clientResponse.getHttpStatus());
+
+        if (streamed) {
+            try (InputStream payloadStream = clientResponse.getPayloadStream()) {
+                payloadStream.transferTo(res.getOutputStream());
+            }
+        } else {
+            byte[] responseData = clientResponse.getBody();
+
+            if (responseData == null) {
+                res.setContentLength(0);
+            } else {
+                res.setContentLength(responseData.length);
+                res.getOutputStream().write(responseData);
+            }
+        }
+    }
+
+    private static void closePayloadStream(HttpResponseInfo clientResponse) {
+        if (clientResponse != null && clientResponse.getPayloadStream() != null) {
+            try {
+                clientResponse.getPayloadStream().close();
+            } catch (IOException e) {
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            }
+        }
     }
 
     @Override
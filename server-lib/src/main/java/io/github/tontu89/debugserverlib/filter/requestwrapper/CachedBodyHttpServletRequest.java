@@ -1,6 +1,7 @@
 package io.github.tontu89.debugserverlib.filter.requestwrapper;
 
 import com.auth0.jwt.exceptions.JWTDecodeException;
+import io.github.tontu89.debugserverlib.model.MultiValueHeaders;
 import io.github.tontu89.debugserverlib.utils.HttpUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.util.StreamUtils;
@@ -24,7 +25,7 @@ import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
 public class CachedBodyHttpServletRequest extends HttpServletRequestWrapper {
 
     private byte[] cachedBody;
-    private Map<String, String> headers;
+    private MultiValueHeaders headers;
 
     public CachedBodyHttpServletRequest(HttpServletRequest request) throws IOException {
         super(request);
@@ -46,17 +47,24 @@ public class CachedBodyHttpServletRequest extends HttpServletRequestWrapper {
         return new BufferedReader(new InputStreamReader(byteArrayInputStream));
     }
 
-    public Map<String, String> getHeaders() {
+    public byte[] getCachedBody() {
+        return this.cachedBody;
+    }
+
+    public MultiValueHeaders getHeaders() {
         return this.headers;
     }
 
     private void initHeader() {
-        this.headers = new HashMap<>();
+        this.headers = new MultiValueHeaders();
         Optional.ofNullable(this.getHeaderNames()).ifPresent(headerNames -> {
             while(headerNames.hasMoreElements()) {
                 String headerName = headerNames.nextElement();
-                String headerValue = this.getHeader(headerName);
-                this.headers.put(headerName, headerValue);
+                Enumeration<String> headerValues = this.getHeaders(headerName);
+
+                while (headerValues != null && headerValues.hasMoreElements()) {
+                    this.headers.add(headerName, headerValues.nextElement());
+                }
             }
         });
     }
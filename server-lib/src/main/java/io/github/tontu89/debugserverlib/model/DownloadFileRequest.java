@@ -0,0 +1,41 @@
+package io.github.tontu89.debugserverlib.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.io.Serializable;
+
+/**
+ * Data of {@link MessageRequest.Command#SERVER_DOWNLOAD_FILE}. Agents send the bare file path unless they resume a
+ * partial download, so servers older than the offset keep working for them.
+ * <p>
+ * A resume also carries the SHA-256 of the bytes the agent has: if the file changed on the server since, the server
+ * sends it again from the start instead of appending its new tail to stale bytes.
+ */
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DownloadFileRequest implements Serializable {
+    private String filePath;
+
+    /**
+     * Bytes the agent already has, the server answers 206 and sends the rest when it can resume from there
+     */
+    private long offset;
+
+    /**
+     * SHA-256 in hex of the first {@link #offset} bytes the agent has
+     */
+    private String offsetSha256;
+
+    @JsonCreator
+    public static DownloadFileRequest fromFilePath(String filePath) {
+        return DownloadFileRequest.builder().filePath(filePath).build();
+    }
+}
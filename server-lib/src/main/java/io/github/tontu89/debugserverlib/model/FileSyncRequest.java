@@ -0,0 +1,44 @@
+package io.github.tontu89.debugserverlib.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Data of {@link MessageRequest.Command#SERVER_SYNC_FILE}: what the agent already has of a file, so the server only
+ * sends what differs.
+ */
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FileSyncRequest implements Serializable {
+    private String filePath;
+
+    /**
+     * SHA-256 of the whole local copy, the server answers {@link FileSyncResponse#isUnchanged()} when it matches
+     */
+    private String sha256;
+
+    private int blockSize;
+
+    /**
+     * Checksums of the full blocks of the local copy, in file order
+     */
+    @ToString.Exclude
+    private List<BlockChecksum> blocks;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class BlockChecksum implements Serializable {
+        private int weak;
+        private byte[] strong;
+    }
+}
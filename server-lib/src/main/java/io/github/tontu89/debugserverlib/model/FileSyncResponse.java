@@ -0,0 +1,51 @@
+package io.github.tontu89.debugserverlib.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Answer to a {@link FileSyncRequest}: the server file rebuilt from blocks of the agent copy and literal data.
+ */
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FileSyncResponse implements Serializable {
+    private boolean unchanged;
+    private long length;
+
+    /**
+     * SHA-256 of the server file, the agent checks the rebuilt file against it
+     */
+    private String sha256;
+
+    @ToString.Exclude
+    private List<Segment> segments;
+
+    /**
+     * Either {@code blockCount} blocks of the agent copy from {@code blockIndex} on, or {@code data} as is
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Segment implements Serializable {
+        private int blockIndex;
+        private int blockCount;
+        private byte[] data;
+
+        public static Segment blocks(int blockIndex, int blockCount) {
+            return new Segment(blockIndex, blockCount, null);
+        }
+
+        public static Segment literal(byte[] data) {
+            return new Segment(-1, 0, data);
+        }
+    }
+}
@@ -5,8 +5,8 @@ import lombok.Getter;
 import lombok.ToString;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Getter
 @ToString
@@ -14,7 +14,8 @@ public class FilterRequest implements Serializable {
     private List<FilterRequestMatchPattern> matchPatterns;
 
     public FilterRequest() {
-        this.matchPatterns = new ArrayList<>();
+        // read by request threads while the client adds or clears filters
+        this.matchPatterns = new CopyOnWriteArrayList<>();
     }
 
     public void addPattern(FilterRequestMatchPattern debugServerRequestMatchPattern) {
@@ -36,4 +37,16 @@ public class FilterRequest implements Serializable {
         return false;
     }
 
+    /**
+     * Reads uri, method and headers straight from the request. The request is only turned into a json document for
+     * paths that need it, and the body only parsed for paths below $.payload.
+     */
+    public boolean isMatch(RequestMatchContext request) {
+        for(FilterRequestMatchPattern matchPattern : this.matchPatterns) {
+            if (matchPattern.isMatch(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -3,6 +3,7 @@ package io.github.tontu89.debugserverlib.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
 import io.github.tontu89.debugserverlib.utils.Constants;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -13,6 +14,8 @@ import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,6 +26,19 @@ import java.util.regex.Pattern;
 @AllArgsConstructor
 @Slf4j
 public class FilterRequestMatchPattern implements Serializable {
+    /**
+     * What a json path reads from the request. The common ones are read straight from the request, only
+     * {@link #DOCUMENT} needs the whole request as a json document.
+     */
+    public enum Target {
+        URI,
+        METHOD,
+        HEADER,
+        PAYLOAD,
+        PAYLOAD_TREE,
+        DOCUMENT
+    }
+
     private String jsonPath;
 
     private String matchPattern;
@@ -33,6 +49,21 @@ public class FilterRequestMatchPattern implements Serializable {
     @JsonIgnore
     private transient Pattern matchPatternObject;
 
+    @JsonIgnore
+    private transient Target target;
+
+    /**
+     * Header name of {@link Target#HEADER}
+     */
+    @JsonIgnore
+    private transient String targetKey;
+
+    /**
+     * Path below $.payload of {@link Target#PAYLOAD_TREE}, read from the body parsed as json
+     */
+    @JsonIgnore
+    private transient JsonPath payloadPathObject;
+
     @Builder
     public FilterRequestMatchPattern(String jsonPath, String matchPattern) {
         this.jsonPath = jsonPath;
@@ -43,6 +74,107 @@ public class FilterRequestMatchPattern implements Serializable {
     public void init() {
         this.jsonPathObject = JsonPath.compile(this.jsonPath);
         this.matchPatternObject = Pattern.compile(this.matchPattern);
+        this.compileTarget();
+    }
+
+    public boolean isMatch(RequestMatchContext request) {
+        boolean matchResult = false;
+        try {
+            String data;
+
+            switch (this.target) {
+                case URI:
+                    data = request.getUri();
+                    break;
+                case METHOD:
+                    data = request.getMethod();
+                    break;
+                case HEADER:
+                    data = request.getHeader(this.targetKey);
+                    break;
+                case PAYLOAD:
+                    data = request.getPayload();
+                    break;
+                case PAYLOAD_TREE:
+                    DocumentContext payloadTree = request.getPayloadDocument();
+                    data = payloadTree == null ? null : payloadTree.read(this.payloadPathObject, String.class);
+                    break;
+                default:
+                    data = request.getRequestDocument().read(this.jsonPathObject, String.class);
+            }
+
+            if (data != null) {
+                Matcher matcher = this.matchPatternObject.matcher(data);
+                matchResult = matcher.matches();
+            }
+
+            log.debug("DebugLib: {} data [{}] with matchPattern [{}] with result {}", this.target, data, matchPattern, matchResult);
+
+        } catch (PathNotFoundException e) {
+            log.debug("DebugLib: No data at [{}]", this.jsonPath);
+        } catch (Exception e) {
+            log.error(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+        return matchResult;
+    }
+
+    /**
+     * Splits simple paths ($.a.b, $['a']['b']) into their properties, anything else (wildcards, indexes, filters,
+     * deep scans) is read from the whole document. Below $.payload any path goes, it is read from the body.
+     */
+    private void compileTarget() {
+        this.target = Target.DOCUMENT;
+        this.targetKey = null;
+        this.payloadPathObject = null;
+
+        String path = this.jsonPath.trim();
+        List<String> properties = new ArrayList<>();
+        int index = path.startsWith("$") ? 1 : path.length();
+
+        while (index < path.length()) {
+            if (properties.size() == 1 && "payload".equals(properties.get(0))) {
+                this.target = Target.PAYLOAD_TREE;
+                this.payloadPathObject = JsonPath.compile("$" + path.substring(index));
+                return;
+            }
+
+            int end;
+            String property;
+
+            if (path.startsWith("['", index) || path.startsWith("[\"", index)) {
+                end = path.indexOf(path.charAt(index + 1) + "]", index + 2);
+                if (end < 0) {
+                    return;
+                }
+                property = path.substring(index + 2, end);
+                end += 2;
+            } else if (path.charAt(index) == '.' && index + 1 < path.length() && path.charAt(index + 1) != '.') {
+                end = index + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    ++end;
+                }
+                property = path.substring(index + 1, end);
+            } else {
+                return;
+            }
+
+            if (property.isEmpty() || property.equals("*")) {
+                return;
+            }
+            properties.add(property);
+            index = end;
+        }
+
+        if (properties.size() == 1 && "uri".equals(properties.get(0))) {
+            this.target = Target.URI;
+        } else if (properties.size() == 1 && "method".equals(properties.get(0))) {
+            this.target = Target.METHOD;
+        } else if (properties.size() == 1 && "payload".equals(properties.get(0))) {
+            this.target = Target.PAYLOAD;
+        } else if (properties.size() == 2 && "headers".equals(properties.get(0))) {
+            this.target = Target.HEADER;
+            this.targetKey = MultiValueHeaders.normalizeName(properties.get(1));
+        }
     }
 
     public boolean isMatch(DocumentContext httpRequestJsonFormat) {
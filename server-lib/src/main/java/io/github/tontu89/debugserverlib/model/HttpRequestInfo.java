@@ -1,6 +1,8 @@
 package io.github.tontu89.debugserverlib.model;
 
 import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.github.tontu89.debugserverlib.filter.requestwrapper.CachedBodyHttpServletRequest;
 import io.github.tontu89.debugserverlib.utils.HttpUtils;
 import lombok.AllArgsConstructor;
@@ -13,6 +15,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Locale;
@@ -29,24 +32,46 @@ import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
 public class HttpRequestInfo implements Serializable {
     private String uri;
     private String method;
-    private Map<String, String> headers;
-    private String payload;
+    private MultiValueHeaders headers;
+
+    /**
+     * Raw body bytes, carried as is from the servlet through the tunnel to the replayed request
+     */
+    @ToString.Exclude
+    private byte[] body;
 
     public static HttpRequestInfo fromHttpRequest(CachedBodyHttpServletRequest request, boolean withPayload) {
-        Map<String, String> headers = request.getHeaders();
+        MultiValueHeaders headers = request.getHeaders();
 
-        String payload = null;
+        byte[] body = null;
         if (withPayload) {
-            payload = HttpUtils.getBody(request);
+            body = request.getCachedBody();
         }
 
         HttpRequestInfo originalRequestInfo = HttpRequestInfo.builder()
                 .uri(request.getRequestURI() + (StringUtils.isBlank(request.getQueryString()) ? "" : ("?" + request.getQueryString())))
                 .method(request.getMethod())
                 .headers(headers)
-                .payload(payload)
+                .body(body)
                 .build();
 
         return originalRequestInfo;
     }
+
+    /**
+     * Text view of {@link #body}, decoded on every call in the charset of the content type, for matchers and logs
+     */
+    @JsonIgnore
+    @ToString.Include(name = "payload")
+    public String getPayload() {
+        return HttpUtils.bodyToText(this.body, this.headers);
+    }
+
+    /**
+     * Body as older peers send it, text they read and replay as UTF-8
+     */
+    @JsonProperty("payload")
+    public void setPayload(String payload) {
+        this.body = payload == null ? null : payload.getBytes(StandardCharsets.UTF_8);
+    }
 }
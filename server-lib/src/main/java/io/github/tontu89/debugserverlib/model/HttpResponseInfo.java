@@ -1,15 +1,17 @@
 package io.github.tontu89.debugserverlib.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.tontu89.debugserverlib.utils.HttpUtils;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 
+import java.io.InputStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Optional;
 
 @Data
@@ -19,14 +21,44 @@ import java.util.Optional;
 @Builder
 public class HttpResponseInfo implements Serializable {
     private int httpStatus;
-    private Map<String, String> headers;
-    private String payload;
-
-    public static void removeEncodingHeader(Map<String, String> headers) {
-        Optional.ofNullable(headers).ifPresent(tmpHeaders -> tmpHeaders.entrySet()
-                .removeIf(header ->
-                        "transfer-encoding".equals(header.getKey().toLowerCase(Locale.ROOT)) ||
-                                "content-encoding".equals(header.getKey().toLowerCase(Locale.ROOT))));
+    private MultiValueHeaders headers;
+
+    /**
+     * Raw body bytes, written back as is
+     */
+    @ToString.Exclude
+    private byte[] body;
+
+    /**
+     * Body still arriving through the tunnel, set instead of {@link #body} for large streamed bodies.
+     * The reader must close it.
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private InputStream payloadStream;
+
+    public static void removeEncodingHeader(MultiValueHeaders headers) {
+        Optional.ofNullable(headers).ifPresent(tmpHeaders -> {
+            tmpHeaders.remove("transfer-encoding");
+            tmpHeaders.remove("content-encoding");
+        });
+    }
+
+    /**
+     * Text view of {@link #body}, decoded on every call in the charset of the content type, for logs
+     */
+    @JsonIgnore
+    @ToString.Include(name = "payload")
+    public String getPayload() {
+        return HttpUtils.bodyToText(this.body, this.headers);
+    }
+
+    /**
+     * Body as older peers send it, text they read and replay as UTF-8
+     */
+    @JsonProperty("payload")
+    public void setPayload(String payload) {
+        this.body = payload == null ? null : payload.getBytes(StandardCharsets.UTF_8);
     }
 
     public void removeEncodingHeader() {
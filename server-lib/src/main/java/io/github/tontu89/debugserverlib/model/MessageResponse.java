@@ -1,5 +1,9 @@
 package io.github.tontu89.debugserverlib.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.github.tontu89.debugserverlib.transport.MessageCodec;
 import io.github.tontu89.debugserverlib.utils.DebugUtils;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -8,6 +12,7 @@ import lombok.NoArgsConstructor;
 import lombok.ToString;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 
 @Data
@@ -17,11 +22,61 @@ import java.io.Serializable;
 @Builder
 public class MessageResponse implements Serializable {
     private int status;
-    private String dataBase64;
 
-    public void encodeDataBase64(Object o) throws IOException {
+    /**
+     * Raw payload. The binary wire format carries it as is, the JSON wire format as {@code dataBase64}.
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private byte[] data;
+
+    /**
+     * Payload streamed in chunk frames after this message, set by the receiver instead of {@link #data}.
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private InputStream dataStream;
+
+    @JsonProperty("dataBase64")
+    public String getDataBase64() {
+        return DebugUtils.bytesToBase64String(this.data);
+    }
+
+    @JsonProperty("dataBase64")
+    public void setDataBase64(String dataBase64) {
+        this.data = DebugUtils.base64StringToBytes(dataBase64);
+    }
+
+    public void encodeData(Object o) throws IOException {
         if (o != null) {
-            dataBase64 = DebugUtils.objectToBase64String(o);
+            data = DebugUtils.objectToBytes(o);
+        }
+    }
+
+    public void encodeData(Object o, MessageCodec codec) throws IOException {
+        if (o != null) {
+            data = DebugUtils.objectToBytes(o, codec);
+        }
+    }
+
+    public <T> T decodeData(Class<T> clazz) throws IOException {
+        return DebugUtils.bytesToObject(this.readData(), clazz);
+    }
+
+    public <T> T decodeData(TypeReference<T> clazz) throws IOException {
+        return DebugUtils.bytesToObject(this.readData(), clazz);
+    }
+
+    /**
+     * A large encoded object may come streamed, it is read into {@link #data} first.
+     */
+    private byte[] readData() throws IOException {
+        if (this.data == null && this.dataStream != null) {
+            try (InputStream in = this.dataStream) {
+                this.data = in.readAllBytes();
+                this.dataStream = null;
+            }
         }
+        return this.data;
     }
 }
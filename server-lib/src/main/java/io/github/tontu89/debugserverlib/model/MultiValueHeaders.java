@@ -0,0 +1,225 @@
+package io.github.tontu89.debugserverlib.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Header fields in the order they came, a name may repeat (Set-Cookie, Vary...). Names are lower case and interned,
+ * names and values sit in two parallel arrays. Serialized as one flat array: name, value, name, value... Read from that
+ * array or from the object of one value per name older peers send.
+ */
+public class MultiValueHeaders implements Serializable {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_INTERNED_NAMES = 1024;
+    private static final Map<String, String> INTERNED_NAMES = new ConcurrentHashMap<>();
+
+    private String[] names;
+    private String[] values;
+    private int size;
+
+    public MultiValueHeaders() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public MultiValueHeaders(int capacity) {
+        this.names = new String[Math.max(1, capacity)];
+        this.values = new String[this.names.length];
+    }
+
+    @JsonCreator
+    public static MultiValueHeaders fromJson(JsonNode node) {
+        MultiValueHeaders headers = new MultiValueHeaders(node.isArray() ? node.size() / 2 : node.size());
+
+        if (node.isArray()) {
+            for (int i = 0; i + 1 < node.size(); i += 2) {
+                headers.add(node.get(i).asText(), textOf(node.get(i + 1)));
+            }
+        } else {
+            node.fields().forEachRemaining(field -> headers.add(field.getKey(), textOf(field.getValue())));
+        }
+        return headers;
+    }
+
+    @JsonValue
+    public String[] toFlatArray() {
+        String[] namesAndValues = new String[this.size * 2];
+
+        for (int i = 0; i < this.size; ++i) {
+            namesAndValues[i * 2] = this.names[i];
+            namesAndValues[i * 2 + 1] = this.values[i];
+        }
+        return namesAndValues;
+    }
+
+    private static String textOf(JsonNode value) {
+        return value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Lower case and, for the first {@value #MAX_INTERNED_NAMES} names seen, the one shared instance
+     */
+    public static String normalizeName(String name) {
+        String lowerCase = name;
+
+        for (int i = 0; i < name.length(); ++i) {
+            if (Character.isUpperCase(name.charAt(i))) {
+                lowerCase = name.toLowerCase(Locale.ROOT);
+                break;
+            }
+        }
+
+        String interned = INTERNED_NAMES.get(lowerCase);
+
+        if (interned == null && INTERNED_NAMES.size() < MAX_INTERNED_NAMES) {
+            interned = INTERNED_NAMES.putIfAbsent(lowerCase, lowerCase);
+        }
+        return interned != null ? interned : lowerCase;
+    }
+
+    public MultiValueHeaders add(String name, String value) {
+        if (name == null) {
+            return this;
+        }
+
+        if (this.size == this.names.length) {
+            this.names = Arrays.copyOf(this.names, this.size * 2);
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+
+        this.names[this.size] = normalizeName(name);
+        this.values[this.size] = value == null ? "" : value;
+        ++this.size;
+        return this;
+    }
+
+    /**
+     * Replaces every value of the header
+     */
+    public MultiValueHeaders set(String name, String value) {
+        this.remove(name);
+        return this.add(name, value);
+    }
+
+    /**
+     * @return whether there was a value to remove
+     */
+    public boolean remove(String name) {
+        String normalized = normalizeName(name);
+        int kept = 0;
+
+        for (int i = 0; i < this.size; ++i) {
+            if (!this.names[i].equals(normalized)) {
+                this.names[kept] = this.names[i];
+                this.values[kept] = this.values[i];
+                ++kept;
+            }
+        }
+
+        boolean removed = kept < this.size;
+        Arrays.fill(this.names, kept, this.size, null);
+        Arrays.fill(this.values, kept, this.size, null);
+        this.size = kept;
+        return removed;
+    }
+
+    public String getFirst(String name) {
+        String normalized = normalizeName(name);
+
+        for (int i = 0; i < this.size; ++i) {
+            if (this.names[i].equals(normalized)) {
+                return this.values[i];
+            }
+        }
+        return null;
+    }
+
+    public List<String> getAll(String name) {
+        String normalized = normalizeName(name);
+        List<String> all = null;
+
+        for (int i = 0; i < this.size; ++i) {
+            if (this.names[i].equals(normalized)) {
+                if (all == null) {
+                    all = new ArrayList<>(2);
+                }
+                all.add(this.values[i]);
+            }
+        }
+        return all == null ? Collections.emptyList() : all;
+    }
+
+    public boolean contains(String name) {
+        return this.getFirst(name) != null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public String getName(int index) {
+        return this.names[index];
+    }
+
+    public String getValue(int index) {
+        return this.values[index];
+    }
+
+    /**
+     * Called once per value, a repeated header once per occurrence
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < this.size; ++i) {
+            action.accept(this.names[i], this.values[i]);
+        }
+    }
+
+    /**
+     * One entry per name, repeated values joined with ", " as they would be on one line
+     */
+    public Map<String, String> toSingleValueMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+
+        for (int i = 0; i < this.size; ++i) {
+            map.merge(this.names[i], this.values[i], (first, next) -> first + ", " + next);
+        }
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MultiValueHeaders)) return false;
+        return Arrays.equals(this.toFlatArray(), ((MultiValueHeaders) o).toFlatArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.toFlatArray());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+
+        for (int i = 0; i < this.size; ++i) {
+            sb.append(i == 0 ? "" : ", ").append(this.names[i]).append('=').append(this.values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
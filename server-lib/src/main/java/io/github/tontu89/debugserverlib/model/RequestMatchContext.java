@@ -0,0 +1,116 @@
+package io.github.tontu89.debugserverlib.model;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import io.github.tontu89.debugserverlib.filter.requestwrapper.CachedBodyHttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One request as every client's filters see it. Built once per request, what the filters read from it (body text,
+ * headers, json trees) is worked out on first use and kept for the next client, the request info is the one that gets
+ * forwarded.
+ * <p>
+ * Not thread safe, a request is matched on one thread.
+ */
+@Slf4j
+public class RequestMatchContext {
+    private final HttpRequestInfo requestInfo;
+
+    private boolean payloadDecoded;
+    private String payload;
+
+    private Map<String, String> headers;
+
+    private boolean payloadDocumentParsed;
+    private DocumentContext payloadDocument;
+
+    private DocumentContext requestDocument;
+
+    public RequestMatchContext(HttpRequestInfo requestInfo) {
+        this.requestInfo = requestInfo;
+    }
+
+    public static RequestMatchContext fromHttpRequest(CachedBodyHttpServletRequest request) {
+        return new RequestMatchContext(HttpRequestInfo.fromHttpRequest(request, true));
+    }
+
+    public HttpRequestInfo getRequestInfo() {
+        return this.requestInfo;
+    }
+
+    public String getUri() {
+        return this.requestInfo.getUri();
+    }
+
+    public String getMethod() {
+        return this.requestInfo.getMethod();
+    }
+
+    /**
+     * @return body as text, null without a body
+     */
+    public String getPayload() {
+        if (!this.payloadDecoded) {
+            this.payload = this.requestInfo.getPayload();
+            this.payloadDecoded = true;
+        }
+        return this.payload;
+    }
+
+    /**
+     * @param name lower case, as {@link MultiValueHeaders#normalizeName(String)} returns it
+     * @return repeated values joined the way they would be on one line
+     */
+    public String getHeader(String name) {
+        return this.getHeaders().get(name);
+    }
+
+    /**
+     * @return one entry per lower case header name
+     */
+    public Map<String, String> getHeaders() {
+        if (this.headers == null) {
+            this.headers = this.requestInfo.getHeaders() == null ? Collections.emptyMap() : this.requestInfo.getHeaders().toSingleValueMap();
+        }
+        return this.headers;
+    }
+
+    /**
+     * @return the body parsed as json, null if there is no body or it is not json
+     */
+    public DocumentContext getPayloadDocument() {
+        if (!this.payloadDocumentParsed) {
+            this.payloadDocumentParsed = true;
+            String payload = this.getPayload();
+
+            if (payload != null && !payload.isBlank()) {
+                try {
+                    this.payloadDocument = JsonPath.parse(payload);
+                } catch (Exception e) {
+                    log.debug("DebugLib: Payload is not json, {}", e.getMessage());
+                }
+            }
+        }
+        return this.payloadDocument;
+    }
+
+    /**
+     * @return the whole request as a json document: uri, method, headers and the body as text under payload
+     */
+    public DocumentContext getRequestDocument() {
+        if (this.requestDocument == null) {
+            Map<String, Object> matchDocument = new LinkedHashMap<>();
+            matchDocument.put("uri", this.getUri());
+            matchDocument.put("method", this.getMethod());
+            matchDocument.put("headers", this.requestInfo.getHeaders() == null ? null : this.getHeaders());
+            matchDocument.put("payload", this.getPayload());
+
+            this.requestDocument = JsonPath.parse(matchDocument);
+        }
+        return this.requestDocument;
+    }
+}
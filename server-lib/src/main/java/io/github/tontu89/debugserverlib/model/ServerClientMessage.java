@@ -1,5 +1,7 @@
 package io.github.tontu89.debugserverlib.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,4 +22,16 @@ public class ServerClientMessage implements Serializable {
     private MessageResponse response;
     private String id;
     private Type type;
+
+    /**
+     * Wire format the message was received with, never sent to the peer
+     */
+    @JsonIgnore
+    private WireFormat wireFormat;
+
+    /**
+     * {@link io.github.tontu89.debugserverlib.transport.BinaryFrameCodec} stream flags, only carried by binary frames
+     */
+    @JsonIgnore
+    private int flags;
 }
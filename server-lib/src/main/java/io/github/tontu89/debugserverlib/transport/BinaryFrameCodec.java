@@ -0,0 +1,221 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.MessageRequest;
+import io.github.tontu89.debugserverlib.model.MessageResponse;
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary frame of the debug tunnel.
+ * <pre>
+ * int    magic (0xDB5F) | version
+ * int    frame length (bytes after this field)
+ * byte   type (0 = REQUEST, 1 = RESPONSE)
+ * byte   flags (FLAG_STREAM_*, FLAG_COMPRESSED)
+ * short  command ordinal (-1 = none)
+ * int    response status
+ * short  id length, id (UTF-8)
+ * int    payload length (-1 = null), payload
+ * </pre>
+ * The magic has its high bit set, so it can never be mistaken for the length prefix of a JSON frame.
+ * <p>
+ * A large payload may be streamed: a head frame flagged {@link #FLAG_STREAM_START} carries everything but the payload,
+ * then chunk frames with the same id and type carry the payload, the last one flagged {@link #FLAG_STREAM_END}.
+ * Once both ends agreed on flow control, the receiver answers with frames of the same id and type flagged
+ * {@link #FLAG_STREAM_CREDIT}, whose payload is an int of chunk bytes the sender may send on top, see {@link StreamWindow}.
+ * A credit frame also flagged {@link #FLAG_STREAM_ABORT} cancels the stream, the receiver stopped reading it.
+ * <p>
+ * A payload flagged {@link #FLAG_COMPRESSED} is laid out as described in {@link FrameCompression}. Senders only set it
+ * once the peer announced it can inflate, and the flag never leaves the codec: decoded messages carry the raw payload.
+ */
+public class BinaryFrameCodec {
+    public static final int MAGIC = 0xDB5F0000;
+    public static final int MAGIC_MASK = 0xFFFF0000;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE_IN_BYTE = 8;
+
+    public static final int FLAG_STREAM_START = 0x01;
+    public static final int FLAG_STREAM_CHUNK = 0x02;
+    public static final int FLAG_STREAM_END = 0x04;
+    public static final int FLAG_STREAM_ABORT = 0x08;
+    public static final int FLAG_COMPRESSED = 0x10;
+    public static final int FLAG_STREAM_CREDIT = 0x20;
+
+    private static final int FIXED_BODY_SIZE_IN_BYTE = 1 + 1 + 2 + 4 + 2 + 4;
+
+    public static boolean isBinaryFrame(int firstInt) {
+        return (firstInt & MAGIC_MASK) == MAGIC;
+    }
+
+    /**
+     * Writes the frame header from a pooled buffer, then the payload straight from its own array so large bodies
+     * are not copied again.
+     */
+    public static void write(DataOutputStream dos, ServerClientMessage message) throws IOException {
+        write(dos, message, FrameCompression.NO_COMPRESSION);
+    }
+
+    /**
+     * @param compressionThreshold smallest payload to compress, {@link FrameCompression#NO_COMPRESSION} to send it as is
+     */
+    public static void write(DataOutputStream dos, ServerClientMessage message, int compressionThreshold) throws IOException {
+        byte[] id = idOf(message);
+        byte[] payload = payloadOf(message);
+        byte[] compressed = compress(payload, compressionThreshold);
+        int flags = message.getFlags();
+        int headerLength = headerLength(id);
+
+        if (compressed != null) {
+            payload = compressed;
+            flags |= FLAG_COMPRESSED;
+        }
+
+        byte[] header = BufferPool.DEFAULT.acquire(headerLength);
+        try {
+            putHeader(ByteBuffer.wrap(header), message, flags, id, payload);
+            dos.write(header, 0, headerLength);
+        } finally {
+            BufferPool.DEFAULT.release(header);
+        }
+
+        if (payload != null) {
+            dos.write(payload);
+        }
+    }
+
+    /**
+     * @return header and payload buffers, ready for a gathering channel write
+     */
+    public static ByteBuffer[] encode(ServerClientMessage message) {
+        return encode(message, FrameCompression.NO_COMPRESSION);
+    }
+
+    /**
+     * @param compressionThreshold smallest payload to compress, {@link FrameCompression#NO_COMPRESSION} to send it as is
+     * @return header and payload buffers, ready for a gathering channel write
+     */
+    public static ByteBuffer[] encode(ServerClientMessage message, int compressionThreshold) {
+        byte[] id = idOf(message);
+        byte[] payload = payloadOf(message);
+        byte[] compressed = compress(payload, compressionThreshold);
+        int flags = message.getFlags();
+        ByteBuffer header = ByteBuffer.allocate(headerLength(id));
+
+        if (compressed != null) {
+            payload = compressed;
+            flags |= FLAG_COMPRESSED;
+        }
+
+        putHeader(header, message, flags, id, payload);
+        header.flip();
+
+        return payload == null ? new ByteBuffer[]{header} : new ByteBuffer[]{header, ByteBuffer.wrap(payload)};
+    }
+
+    /**
+     * @param magic first int of the frame, already consumed by the caller
+     * @param body  buffer holding the frame content after the length field
+     */
+    public static ServerClientMessage decode(int magic, byte[] body, int offset, int length) throws IOException {
+        int version = magic & ~MAGIC_MASK;
+        if (version > VERSION) {
+            throw new IOException("Unsupported binary frame version " + version);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(body, offset, length);
+        checkRemaining(buffer, FIXED_BODY_SIZE_IN_BYTE);
+        ServerClientMessage.Type type = buffer.get() == 1 ? ServerClientMessage.Type.RESPONSE : ServerClientMessage.Type.REQUEST;
+        int flags = buffer.get() & 0xFF;
+        short command = buffer.getShort();
+        int status = buffer.getInt();
+
+        int idLength = buffer.getShort() & 0xFFFF;
+        checkRemaining(buffer, idLength + 4);
+        byte[] id = new byte[idLength];
+        buffer.get(id);
+
+        byte[] payload = null;
+        int payloadLength = buffer.getInt();
+        if (payloadLength < -1 || payloadLength > buffer.remaining()) {
+            throw new IOException("Malformed binary frame");
+        }
+        if (payloadLength >= 0 && (flags & FLAG_COMPRESSED) != 0) {
+            payload = FrameCompression.inflate(body, buffer.position(), payloadLength);
+            flags &= ~FLAG_COMPRESSED;
+        } else if (payloadLength >= 0) {
+            payload = new byte[payloadLength];
+            buffer.get(payload);
+        }
+
+        ServerClientMessage.ServerClientMessageBuilder builder = ServerClientMessage.builder()
+                .id(id.length == 0 ? null : new String(id, StandardCharsets.UTF_8))
+                .type(type)
+                .flags(flags)
+                .wireFormat(WireFormat.BINARY);
+
+        if (type == ServerClientMessage.Type.REQUEST) {
+            MessageRequest.Command[] commands = MessageRequest.Command.values();
+            if (command >= commands.length) {
+                throw new IOException("Unsupported command " + command);
+            }
+            builder.request(MessageRequest.builder()
+                    .command(command < 0 ? null : commands[command])
+                    .data(payload)
+                    .build());
+        } else {
+            builder.response(MessageResponse.builder()
+                    .status(status)
+                    .data(payload)
+                    .build());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * A corrupt or truncated frame fails as such, instead of reading past its end
+     */
+    private static void checkRemaining(ByteBuffer buffer, int needed) throws IOException {
+        if (needed > buffer.remaining()) {
+            throw new IOException("Malformed binary frame");
+        }
+    }
+
+    private static byte[] idOf(ServerClientMessage message) {
+        return message.getId() == null ? new byte[0] : message.getId().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] payloadOf(ServerClientMessage message) {
+        if (message.getRequest() != null) {
+            return message.getRequest().getData();
+        }
+        return message.getResponse() != null ? message.getResponse().getData() : null;
+    }
+
+    private static byte[] compress(byte[] payload, int compressionThreshold) {
+        return FrameCompression.isWorthCompressing(payload, compressionThreshold) ? FrameCompression.deflate(payload) : null;
+    }
+
+    private static int headerLength(byte[] id) {
+        return HEADER_SIZE_IN_BYTE + FIXED_BODY_SIZE_IN_BYTE + id.length;
+    }
+
+    private static void putHeader(ByteBuffer buffer, ServerClientMessage message, int flags, byte[] id, byte[] payload) {
+        MessageRequest request = message.getRequest();
+        MessageResponse response = message.getResponse();
+
+        buffer.putInt(MAGIC | VERSION);
+        buffer.putInt(headerLength(id) - HEADER_SIZE_IN_BYTE + (payload == null ? 0 : payload.length));
+        buffer.put((byte) (message.getType() == ServerClientMessage.Type.RESPONSE ? 1 : 0));
+        buffer.put((byte) flags);
+        buffer.putShort((short) (request != null && request.getCommand() != null ? request.getCommand().ordinal() : -1));
+        buffer.putInt(response != null ? response.getStatus() : 0);
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+        buffer.putInt(payload == null ? -1 : payload.length);
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of byte arrays bucketed by power of two sizes, used to read whole frames off the socket without
+ * allocating a fresh array per frame. Arrays bigger than the largest bucket are allocated and dropped.
+ */
+public class BufferPool {
+    public static final BufferPool DEFAULT = new BufferPool(4 * 1024, 1024 * 1024, 16);
+
+    private final int minBufferSize;
+    private final int maxBufferSize;
+    private final Queue<byte[]>[] buckets;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int minBufferSize, int maxBufferSize, int maxBufferPerBucket) {
+        this.minBufferSize = Integer.highestOneBit(minBufferSize);
+        this.maxBufferSize = Integer.highestOneBit(maxBufferSize);
+        this.buckets = new Queue[bucketIndex(this.maxBufferSize) + 1];
+
+        for (int i = 0; i < this.buckets.length; ++i) {
+            this.buckets[i] = new ArrayBlockingQueue<>(maxBufferPerBucket);
+        }
+    }
+
+    /**
+     * @return an array of at least {@code size} bytes, content is undefined
+     */
+    public byte[] acquire(int size) {
+        if (size > this.maxBufferSize) {
+            return new byte[size];
+        }
+
+        int bufferSize = Math.max(this.minBufferSize, size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1);
+        byte[] buffer = this.buckets[bucketIndex(bufferSize)].poll();
+
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length >= this.minBufferSize && buffer.length <= this.maxBufferSize && Integer.bitCount(buffer.length) == 1) {
+            this.buckets[bucketIndex(buffer.length)].offer(buffer);
+        }
+    }
+
+    private int bucketIndex(int bufferSize) {
+        return Integer.numberOfTrailingZeros(bufferSize) - Integer.numberOfTrailingZeros(this.minBufferSize);
+    }
+}
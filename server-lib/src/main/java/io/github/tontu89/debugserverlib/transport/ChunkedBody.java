@@ -0,0 +1,128 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.MessageRequest;
+import io.github.tontu89.debugserverlib.model.MessageResponse;
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_ABORT;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_CHUNK;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_END;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_START;
+import static io.github.tontu89.debugserverlib.utils.Constants.STREAM_CHUNK_SIZE_IN_BYTE;
+
+/**
+ * Sending end of a payload that may be streamed. Only the first {@code threshold} bytes are read up front: a body that
+ * ends within them is sent as a plain message, a longer one as a head frame followed by chunk frames.
+ */
+public class ChunkedBody {
+    private final InputStream body;
+    private final byte[] prefix;
+    private final int prefixLength;
+    private final boolean complete;
+
+    private ChunkedBody(InputStream body, byte[] prefix, int prefixLength, boolean complete) {
+        this.body = body;
+        this.prefix = prefix;
+        this.prefixLength = prefixLength;
+        this.complete = complete;
+    }
+
+    public static ChunkedBody read(InputStream body, int threshold) throws IOException {
+        byte[] prefix = new byte[threshold + 1];
+        int length = body.readNBytes(prefix, 0, prefix.length);
+
+        return new ChunkedBody(body, prefix, length, length <= threshold);
+    }
+
+    /**
+     * @return true if the whole body fits in the threshold
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Reads the rest of the body into memory, used for small bodies and for peers that cannot take chunk frames.
+     */
+    public byte[] readAll() throws IOException {
+        try (InputStream in = this.body) {
+            if (this.complete) {
+                return Arrays.copyOf(this.prefix, this.prefixLength);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(this.prefixLength * 2);
+            out.write(this.prefix, 0, this.prefixLength);
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    public void send(ServerClientMessage head, Consumer<ServerClientMessage> sink) throws IOException {
+        this.send(head, sink, null);
+    }
+
+    /**
+     * Sends the head flagged as stream start, then the body in chunk frames. If reading the body fails midway the
+     * receiver is told with an abort chunk and the error is rethrown.
+     *
+     * @param streams keeps the credit window of the stream once flow control is on, null to send without waiting
+     */
+    public void send(ServerClientMessage head, Consumer<ServerClientMessage> sink, StreamAssembler streams) throws IOException {
+        head.setFlags(FLAG_STREAM_START);
+        sink.accept(head);
+
+        StreamWindow window = streams == null ? null : streams.openOutbound(head);
+
+        try (InputStream in = this.body) {
+            for (int offset = 0; offset < this.prefixLength; offset += STREAM_CHUNK_SIZE_IN_BYTE) {
+                sendChunk(head, Arrays.copyOfRange(this.prefix, offset, Math.min(this.prefixLength, offset + STREAM_CHUNK_SIZE_IN_BYTE)), sink, window);
+            }
+
+            byte[] chunk;
+            while ((chunk = in.readNBytes(STREAM_CHUNK_SIZE_IN_BYTE)).length > 0) {
+                sendChunk(head, chunk, sink, window);
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                sink.accept(chunkOf(head, null, FLAG_STREAM_CHUNK | FLAG_STREAM_ABORT));
+            } catch (RuntimeException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+            throw e;
+        } finally {
+            if (streams != null) {
+                streams.closeOutbound(head);
+            }
+        }
+
+        sink.accept(chunkOf(head, null, FLAG_STREAM_CHUNK | FLAG_STREAM_END));
+    }
+
+    private static void sendChunk(ServerClientMessage head, byte[] chunk, Consumer<ServerClientMessage> sink, StreamWindow window) throws IOException {
+        if (window != null) {
+            window.acquire(chunk.length);
+        }
+        sink.accept(chunkOf(head, chunk, FLAG_STREAM_CHUNK));
+    }
+
+    private static ServerClientMessage chunkOf(ServerClientMessage head, byte[] data, int flags) {
+        ServerClientMessage.ServerClientMessageBuilder builder = ServerClientMessage.builder()
+                .id(head.getId())
+                .type(head.getType())
+                .flags(flags);
+
+        if (head.getType() == ServerClientMessage.Type.REQUEST) {
+            builder.request(MessageRequest.builder().data(data).build());
+        } else {
+            builder.response(MessageResponse.builder().status(head.getResponse().getStatus()).data(data).build());
+        }
+
+        return builder.build();
+    }
+}
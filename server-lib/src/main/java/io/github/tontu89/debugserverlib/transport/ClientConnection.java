@@ -0,0 +1,40 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+
+import java.util.concurrent.Executor;
+
+/**
+ * One debug client tunnel, independent of the socket model behind it.
+ */
+public interface ClientConnection extends AutoCloseable {
+    /**
+     * Starts delivering frames to the listener, blocking implementations run their I/O loops on the executor.
+     */
+    void start(ClientConnectionListener listener, Executor executor);
+
+    /**
+     * Queues the message for sending, never blocks on the network. Waits or fails as the {@link FlowControlPolicy}
+     * says while the connection window or the {@link TunnelBudget} is used up.
+     *
+     * @throws FlowControlException if the message was not queued
+     */
+    void send(ServerClientMessage message, WireFormat wireFormat);
+
+    /**
+     * Blocks while more than {@code maxPendingBytes} are queued for sending, used to pace streamed bodies.
+     */
+    void awaitWritable(long maxPendingBytes) throws InterruptedException;
+
+    /**
+     * Compresses binary frame payloads from {@code thresholdInByte} on, once the client announced it can inflate them.
+     *
+     * @param thresholdInByte {@link FrameCompression#NO_COMPRESSION} to send payloads as is
+     */
+    void setCompressionThreshold(int thresholdInByte);
+
+    boolean isOpen();
+
+    @Override
+    void close();
+}
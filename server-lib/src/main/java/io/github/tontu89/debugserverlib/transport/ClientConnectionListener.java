@@ -0,0 +1,19 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+
+/**
+ * Receives what a {@link ClientConnection} reads off the wire.
+ */
+public interface ClientConnectionListener {
+    /**
+     * Called for every decoded frame, one at a time and in arrival order, from the reader loop of a blocking connection
+     * or the executor of a NIO one. Must hand long work over to another executor.
+     */
+    void onMessage(ServerClientMessage message);
+
+    /**
+     * Called once, when the connection is lost or closed.
+     */
+    void onClose();
+}
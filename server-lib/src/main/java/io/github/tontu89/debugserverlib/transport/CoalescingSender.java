@@ -0,0 +1,70 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sender loop writing every frame ready in the queue into the buffered stream and flushing once per batch, so a
+ * burst of parallel requests shares packets instead of paying a flush and an ACK round each.
+ */
+public class CoalescingSender<E> {
+    private final PriorityFrameQueue<E> queue;
+    private final OutputStream out;
+    private final OutboundWatermark outboundWatermark;
+    private final FrameWriter<E> frameWriter;
+    private final long flushMaxLatencyNanos;
+    private final int maxBatchSizeInByte;
+
+    /**
+     * @param flushMaxLatencyMicros how long a written frame may wait for more frames to join its batch, 0 to flush
+     *                              as soon as the queue is empty
+     * @param maxBatchSizeInByte    payload size after which the batch is flushed without waiting for more
+     */
+    public CoalescingSender(PriorityFrameQueue<E> queue, OutputStream out, OutboundWatermark outboundWatermark, int flushMaxLatencyMicros, int maxBatchSizeInByte, FrameWriter<E> frameWriter) {
+        this.queue = queue;
+        this.out = out;
+        this.outboundWatermark = outboundWatermark;
+        this.frameWriter = frameWriter;
+        this.flushMaxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, flushMaxLatencyMicros));
+        this.maxBatchSizeInByte = maxBatchSizeInByte;
+    }
+
+    /**
+     * Runs until the queue is closed and drained.
+     */
+    public void run() throws IOException, InterruptedException {
+        E frame;
+
+        while ((frame = this.queue.take()) != null) {
+            long flushAt = System.nanoTime() + this.flushMaxLatencyNanos;
+            long batchSize = this.frameWriter.write(frame);
+
+            while (batchSize < this.maxBatchSizeInByte && (frame = this.nextReady(flushAt)) != null) {
+                batchSize += this.frameWriter.write(frame);
+            }
+
+            this.out.flush();
+            this.outboundWatermark.written(batchSize);
+        }
+    }
+
+    private E nextReady(long flushAt) throws InterruptedException {
+        E frame = this.queue.poll();
+
+        if (frame == null && this.flushMaxLatencyNanos > 0) {
+            frame = this.queue.poll(flushAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        return frame;
+    }
+
+    public interface FrameWriter<E> {
+
+        /**
+         * Writes the frame without flushing
+         *
+         * @return payload size of the frame as counted by the {@link OutboundWatermark}
+         */
+        long write(E frame) throws IOException;
+    }
+}
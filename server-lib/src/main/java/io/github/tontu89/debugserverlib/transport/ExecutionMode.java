@@ -0,0 +1,13 @@
+package io.github.tontu89.debugserverlib.transport;
+
+/**
+ * What the blocking loops and the request handlers of the server and the agent run on.
+ * <ul>
+ *     <li>PLATFORM: cached and fixed thread pools, one OS thread per blocked task</li>
+ *     <li>VIRTUAL: a virtual thread per task, blocked tasks give their carrier thread back. Needs a JDK with virtual
+ *     threads (21 or later), PLATFORM is used on older ones</li>
+ * </ul>
+ */
+public enum ExecutionMode {
+    PLATFORM, VIRTUAL
+}
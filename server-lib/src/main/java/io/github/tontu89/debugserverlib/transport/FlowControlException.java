@@ -0,0 +1,11 @@
+package io.github.tontu89.debugserverlib.transport;
+
+/**
+ * A message could not be queued, its connection window or the {@link TunnelBudget} is used up.
+ */
+public class FlowControlException extends RuntimeException {
+
+    public FlowControlException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.tontu89.debugserverlib.transport;
+
+/**
+ * What a sender does when its connection window or the {@link TunnelBudget} is used up.
+ * <ul>
+ *     <li>BLOCK: waits for the peer to drain, up to the budget block timeout, then fails</li>
+ *     <li>FAIL_FAST: fails right away with a {@link FlowControlException}</li>
+ * </ul>
+ */
+public enum FlowControlPolicy {
+    BLOCK, FAIL_FAST
+}
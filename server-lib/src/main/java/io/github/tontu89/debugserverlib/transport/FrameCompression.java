@@ -0,0 +1,99 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.MAX_FRAME_SIZE_IN_BYTE;
+
+/**
+ * Payload compression of binary frames flagged {@link BinaryFrameCodec#FLAG_COMPRESSED}.
+ * <pre>
+ * int    raw payload length
+ * byte[] raw deflate stream of the payload
+ * </pre>
+ * Deflate runs at {@link Deflater#BEST_SPEED}: the tunnel is usually a port-forward or a VPN, where a few ms of CPU
+ * buy far more than they cost.
+ */
+public class FrameCompression {
+    public static final int NO_COMPRESSION = -1;
+
+    private static final int RAW_LENGTH_SIZE_IN_BYTE = 4;
+    // deflate cannot shrink data by more than about 1032:1
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * @param thresholdInByte smallest payload worth compressing, {@link #NO_COMPRESSION} when the peer can't inflate
+     */
+    public static boolean isWorthCompressing(byte[] payload, int thresholdInByte) {
+        return thresholdInByte >= 0 && payload != null && payload.length >= thresholdInByte && payload.length > RAW_LENGTH_SIZE_IN_BYTE;
+    }
+
+    /**
+     * @return the compressed payload, or null if it would not be smaller, e.g. an already gzipped body
+     */
+    public static byte[] deflate(byte[] payload) {
+        byte[] scratch = BufferPool.DEFAULT.acquire(payload.length);
+
+        try {
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+
+            ByteBuffer.wrap(scratch).putInt(payload.length);
+            int length = RAW_LENGTH_SIZE_IN_BYTE;
+
+            while (!deflater.finished() && length < payload.length) {
+                length += deflater.deflate(scratch, length, payload.length - length);
+            }
+
+            return deflater.finished() && length < payload.length ? Arrays.copyOf(scratch, length) : null;
+        } finally {
+            BufferPool.DEFAULT.release(scratch);
+        }
+    }
+
+    public static byte[] inflate(byte[] body, int offset, int length) throws IOException {
+        if (length < RAW_LENGTH_SIZE_IN_BYTE) {
+            throw new IOException("Invalid compressed payload length " + length);
+        }
+
+        // the raw length comes from the peer, check it before allocating for it
+        int rawLength = ByteBuffer.wrap(body, offset, length).getInt();
+        if (rawLength < 0 || rawLength > MAX_FRAME_SIZE_IN_BYTE || rawLength > (long) (length - RAW_LENGTH_SIZE_IN_BYTE) * MAX_DEFLATE_RATIO) {
+            throw new IOException("Invalid raw payload length " + rawLength + " for " + length + " compressed bytes");
+        }
+
+        byte[] payload = new byte[rawLength];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(body, offset + RAW_LENGTH_SIZE_IN_BYTE, length - RAW_LENGTH_SIZE_IN_BYTE);
+
+        try {
+            int inflated = 0;
+
+            while (inflated < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(payload, inflated, rawLength - inflated);
+
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += read;
+            }
+
+            if (inflated != rawLength) {
+                throw new IOException("Truncated compressed payload, " + inflated + " of " + rawLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed payload", e);
+        }
+
+        return payload;
+    }
+}
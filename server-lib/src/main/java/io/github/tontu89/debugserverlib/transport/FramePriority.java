@@ -0,0 +1,48 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.MessageRequest;
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.utils.Constants;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_CHUNK;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_CREDIT;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_START;
+
+/**
+ * Order in which queued frames leave a connection, see {@link FrameScheduler}.
+ * <ul>
+ *     <li>CONTROL: heart beats, credit grants and session set up, a late one can cost the whole connection</li>
+ *     <li>INTERACTIVE: requests and answers sent in one frame</li>
+ *     <li>BULK: streamed bodies, in chunks so the classes above slip in between</li>
+ * </ul>
+ */
+public enum FramePriority {
+    CONTROL, INTERACTIVE, BULK;
+
+    private static final Set<MessageRequest.Command> CONTROL_COMMANDS = EnumSet.of(
+            MessageRequest.Command.HEART_BEAT, MessageRequest.Command.HELLO, MessageRequest.Command.SERVER_EXIT,
+            MessageRequest.Command.SERVER_SET_CLIENT_NAME, MessageRequest.Command.SERVER_JOIN_SESSION,
+            MessageRequest.Command.SERVER_ADD_FILTER_PATTERN, MessageRequest.Command.SERVER_CLEAR_ALL_FILTER_PATTERN,
+            MessageRequest.Command.SERVER_GET_ALL_FILTER_PATTERN);
+
+    public static FramePriority of(ServerClientMessage message) {
+        int flags = message.getFlags();
+
+        if ((flags & FLAG_STREAM_CREDIT) != 0) {
+            return CONTROL;
+        }
+
+        if ((flags & (FLAG_STREAM_START | FLAG_STREAM_CHUNK)) != 0) {
+            return BULK;
+        }
+
+        if (message.getRequest() != null) {
+            return CONTROL_COMMANDS.contains(message.getRequest().getCommand()) ? CONTROL : INTERACTIVE;
+        }
+
+        return message.getResponse() != null && message.getResponse().getStatus() == Constants.HEART_BEAT_RESPONSE_CODE ? CONTROL : INTERACTIVE;
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.util.ArrayDeque;
+
+/**
+ * Picks the next frame to send by {@link FramePriority}, FIFO within a priority so chunks of a stream stay in order.
+ * A priority with frames waiting is passed over at most {@code maxPassedOver} times in a row, then served anyway,
+ * so bulk transfers slow down under interactive load but never stall.
+ * <p>
+ * Not thread safe, owned by the thread writing the connection.
+ */
+public class FrameScheduler<E> {
+    private static final FramePriority[] PRIORITIES = FramePriority.values();
+
+    private final ArrayDeque<E>[] queues;
+    private final int[] passedOver;
+    private final int maxPassedOver;
+
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public FrameScheduler(int maxPassedOver) {
+        this.queues = new ArrayDeque[PRIORITIES.length];
+        this.passedOver = new int[PRIORITIES.length];
+        this.maxPassedOver = maxPassedOver;
+
+        for (int i = 0; i < PRIORITIES.length; ++i) {
+            this.queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    public void add(E frame, FramePriority priority) {
+        this.queues[priority.ordinal()].add(frame);
+        this.size++;
+    }
+
+    /**
+     * @return the next frame to send, null if there is none
+     */
+    public E poll() {
+        int next = -1;
+
+        for (int i = 0; i < this.queues.length; ++i) {
+            if (this.queues[i].isEmpty()) {
+                continue;
+            }
+
+            if (next < 0 || this.passedOver[i] >= this.maxPassedOver) {
+                next = i;
+            }
+        }
+
+        if (next < 0) {
+            return null;
+        }
+
+        for (int i = 0; i < this.queues.length; ++i) {
+            if (i == next || this.queues[i].isEmpty()) {
+                this.passedOver[i] = 0;
+            } else {
+                this.passedOver[i]++;
+            }
+        }
+
+        this.size--;
+        return this.queues[next].poll();
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        for (ArrayDeque<E> queue : this.queues) {
+            queue.clear();
+        }
+        this.size = 0;
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * {@link MessageCodec} on top of a Jackson data format. Binary formats must write a header so the receiver can tell
+ * them from JSON, which has none.
+ */
+public class JacksonMessageCodec implements MessageCodec {
+    private final String name;
+    private final ObjectMapper objectMapper;
+    private final byte[] header;
+
+    public JacksonMessageCodec(String name, ObjectMapper objectMapper, byte[] header) {
+        this.name = name;
+        this.objectMapper = objectMapper;
+        this.header = header;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return this.objectMapper.writeValueAsBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) throws IOException {
+        return this.objectMapper.readValue(data, type);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, TypeReference<T> type) throws IOException {
+        return this.objectMapper.readValue(data, type);
+    }
+
+    @Override
+    public boolean isEncodedWith(byte[] data) {
+        if (this.header == null || data == null || data.length < this.header.length) {
+            return false;
+        }
+
+        for (int i = 0; i < this.header.length; i++) {
+            if (data[i] != this.header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+
+/**
+ * Encoding of the objects carried as message data, e.g. {@link io.github.tontu89.debugserverlib.model.HttpRequestInfo}.
+ * The sender uses the codec agreed at HELLO, the receiver recognizes it from the data, see {@link MessageCodecs}.
+ */
+public interface MessageCodec {
+    /**
+     * Name announced in the HELLO capabilities as {@code codec-<name>}
+     */
+    String getName();
+
+    byte[] encode(Object value) throws IOException;
+
+    <T> T decode(byte[] data, Class<T> type) throws IOException;
+
+    <T> T decode(byte[] data, TypeReference<T> type) throws IOException;
+
+    /**
+     * @return true if the data starts with the header this codec writes
+     */
+    boolean isEncodedWith(byte[] data);
+}
@@ -0,0 +1,120 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import io.github.tontu89.debugserverlib.model.HttpRequestInfo;
+import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
+import io.github.tontu89.debugserverlib.model.MultiValueHeaders;
+import io.github.tontu89.debugserverlib.utils.Constants;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link MessageCodec}s both ends know. JSON is what every peer talks before HELLO and what older peers talk for
+ * good; Smile and CBOR carry {@code byte[]} fields raw instead of in Base64.
+ * <p>
+ * Older peers know HTTP bodies as text and headers as one value per name, they are written for them with
+ * {@link #LEGACY_JSON}, see {@link #forPeer(MessageCodec, Collection)}. JSON reads both forms.
+ */
+public class MessageCodecs {
+    public static final String CAPABILITY_PREFIX = "codec-";
+
+    public static final MessageCodec JSON = new JacksonMessageCodec("json", Constants.OBJECT_MAPPER, null);
+
+    public static final MessageCodec SMILE = new JacksonMessageCodec("smile",
+            new ObjectMapper(SmileFactory.builder()
+                    .enable(SmileGenerator.Feature.WRITE_HEADER)
+                    .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT)
+                    .build()),
+            new byte[]{':', ')', '\n'});
+
+    public static final MessageCodec CBOR = new JacksonMessageCodec("cbor",
+            new ObjectMapper(CBORFactory.builder()
+                    .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+                    .build()),
+            new byte[]{(byte) 0xD9, (byte) 0xD9, (byte) 0xF7});
+
+    /**
+     * JSON with HTTP bodies as text under {@code payload} and headers as an object, the way peers without
+     * {@link Constants#CAPABILITY_RAW_BODY} or {@link Constants#CAPABILITY_MULTI_VALUE_HEADERS} read them. Repeated
+     * headers are joined on one line. Never announced, it only writes.
+     */
+    public static final MessageCodec LEGACY_JSON = new JacksonMessageCodec("json",
+            Constants.OBJECT_MAPPER.copy()
+                    .addMixIn(HttpRequestInfo.class, TextBodyMixIn.class)
+                    .addMixIn(HttpResponseInfo.class, TextBodyMixIn.class)
+                    .addMixIn(MultiValueHeaders.class, SingleValueHeadersMixIn.class),
+            null);
+
+    private static final List<MessageCodec> CODECS = List.of(SMILE, CBOR, JSON);
+
+    /**
+     * @return the codec the data was written with, JSON when no binary header matches
+     */
+    public static MessageCodec detect(byte[] data) {
+        for (MessageCodec codec : CODECS) {
+            if (codec.isEncodedWith(data)) {
+                return codec;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * @return the codec named by a HELLO capability, null if it is not a codec or an unknown one
+     */
+    public static MessageCodec fromCapability(String capability) {
+        if (capability == null || !capability.startsWith(CAPABILITY_PREFIX)) {
+            return null;
+        }
+
+        return byName(capability.substring(CAPABILITY_PREFIX.length()));
+    }
+
+    /**
+     * @return the codec with this name, ignoring case, null if there is none
+     */
+    public static MessageCodec byName(String name) {
+        return CODECS.stream().filter(codec -> codec.getName().equalsIgnoreCase(name)).findFirst().orElse(null);
+    }
+
+    public static String capabilityOf(MessageCodec codec) {
+        return CAPABILITY_PREFIX + codec.getName();
+    }
+
+    /**
+     * @param codec codec agreed at HELLO
+     * @param peerCapabilities capabilities the peer announced or accepted at HELLO, empty without HELLO
+     * @return the codec to write data for this peer with, {@link #LEGACY_JSON} if it does not read raw bodies and
+     * repeated headers
+     */
+    public static MessageCodec forPeer(MessageCodec codec, Collection<String> peerCapabilities) {
+        return peerCapabilities.contains(Constants.CAPABILITY_RAW_BODY) &&
+                peerCapabilities.contains(Constants.CAPABILITY_MULTI_VALUE_HEADERS) ? codec : LEGACY_JSON;
+    }
+
+    private abstract static class TextBodyMixIn {
+        @JsonIgnore
+        abstract byte[] getBody();
+
+        @JsonIgnore(false)
+        @JsonProperty("payload")
+        abstract String getPayload();
+    }
+
+    private abstract static class SingleValueHeadersMixIn {
+        @JsonValue(false)
+        abstract String[] toFlatArray();
+
+        @JsonValue
+        abstract Map<String, String> toSingleValueMap();
+    }
+}
@@ -0,0 +1,255 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi producer, single consumer queue feeding a sender loop. Each slot carries a sequence number telling
+ * whether it is free for the producer or filled for the consumer, so producers only race on one counter and the
+ * consumer never locks. An idle consumer parks until a producer hands it something, it does not wake up otherwise.
+ * <p>
+ * Closing sets a bit in the same counter producers claim slots from, so no slot can be claimed once it is closed and
+ * the consumer knows exactly which ones it still has to drain.
+ */
+public class MpscRingBuffer<E> {
+    private static final int SPIN_BEFORE_PARK = 64;
+    private static final long FULL_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long CLOSED_BIT = Long.MIN_VALUE;
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private final int mask;
+    private final Queue<Thread> waitingProducers;
+
+    private long head;
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        int size = capacity <= 1 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.tail = new AtomicLong();
+        this.mask = size - 1;
+        this.waitingProducers = new ConcurrentLinkedQueue<>();
+
+        for (int i = 0; i < size; ++i) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full or closed
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long position = this.tail.get();
+
+            if ((position & CLOSED_BIT) != 0) {
+                return false;
+            }
+
+            int index = (int) (position & this.mask);
+            long available = this.sequences.get(index) - position;
+
+            if (available == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.buffer[index] = element;
+                    this.sequences.set(index, position + 1);
+
+                    if (this.consumerParked) {
+                        LockSupport.unpark(this.consumer);
+                    }
+                    return true;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Waits for a free slot while the buffer is full.
+     *
+     * @return false if the buffer is closed, the element is dropped
+     */
+    public boolean put(E element) throws InterruptedException {
+        while (!this.offer(element)) {
+            if (this.closed) {
+                return false;
+            }
+
+            Thread current = Thread.currentThread();
+            this.waitingProducers.add(current);
+
+            try {
+                // the consumer may have freed a slot before it could see us waiting
+                if (this.offer(element)) {
+                    return true;
+                }
+                LockSupport.parkNanos(this, FULL_PARK_NS);
+            } finally {
+                this.waitingProducers.remove(current);
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side only.
+     *
+     * @return the next element, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        int index = (int) (this.head & this.mask);
+
+        if (this.sequences.get(index) != this.head + 1) {
+            return null;
+        }
+
+        E element = (E) this.buffer[index];
+        this.buffer[index] = null;
+        this.sequences.set(index, this.head + this.buffer.length);
+        this.head++;
+
+        Thread producer = this.waitingProducers.peek();
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return element;
+    }
+
+    /**
+     * Consumer side only, parks until an element comes in.
+     *
+     * @return the next element, null once the buffer is closed and drained
+     */
+    public E take() throws InterruptedException {
+        return this.await(false, 0);
+    }
+
+    /**
+     * Consumer side only, parks until an element comes in or the timeout elapses.
+     *
+     * @return the next element, null if none came in time or the buffer is closed and drained
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = this.poll();
+        return element != null || timeout <= 0 ? element : this.await(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} to give up at when {@code timed}, otherwise wait as long as the buffer is open
+     */
+    private E await(boolean timed, long deadline) throws InterruptedException {
+        for (int i = 0; i < SPIN_BEFORE_PARK; ++i) {
+            E element = this.poll();
+
+            if (element != null) {
+                return element;
+            }
+            Thread.onSpinWait();
+        }
+
+        this.consumer = Thread.currentThread();
+
+        while (true) {
+            E element = this.poll();
+
+            if (element != null) {
+                return element;
+            }
+
+            if (this.closed) {
+                return this.drainClosed();
+            }
+
+            long remaining = !timed ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+
+            // producers check the flag after publishing, so one of us sees the other
+            this.consumerParked = true;
+
+            try {
+                element = this.poll();
+
+                if (element != null) {
+                    return element;
+                }
+
+                if (this.closed) {
+                    continue;
+                }
+
+                if (!timed) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                this.consumerParked = false;
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Refuses new elements and wakes everybody up, the consumer still gets what was queued before.
+     */
+    public void close() {
+        long position;
+
+        do {
+            position = this.tail.get();
+        } while ((position & CLOSED_BIT) == 0 && !this.tail.compareAndSet(position, position | CLOSED_BIT));
+        this.closed = true;
+
+        Thread current = this.consumer;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+        this.waitingProducers.forEach(LockSupport::unpark);
+    }
+
+    /**
+     * @return the next element claimed before the buffer was closed, null once they are all taken
+     */
+    private E drainClosed() {
+        long end = this.tail.get() & ~CLOSED_BIT;
+
+        while (this.head < end) {
+            E element = this.poll();
+
+            if (element != null) {
+                return element;
+            }
+            // claimed before the close, its producer is about to publish it
+            Thread.onSpinWait();
+        }
+        return null;
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+}
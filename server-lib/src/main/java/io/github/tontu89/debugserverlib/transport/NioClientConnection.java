@@ -0,0 +1,311 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
+import static io.github.tontu89.debugserverlib.utils.Constants.OUTBOUND_MAX_PASSED_OVER;
+import static io.github.tontu89.debugserverlib.utils.Constants.SOCKET_BUFFER_SIZE_IN_BYTE;
+
+/**
+ * {@link ClientConnection} driven by {@link NioDebugServer}. Reads and writes only happen on the selector thread,
+ * {@link #send(ServerClientMessage, WireFormat)} encodes on the caller thread and queues the frame, the selector
+ * thread picks queued frames by {@link FramePriority} as the socket takes them.
+ * <p>
+ * The selector thread only cuts frames out of the socket. They are decoded and handed to the listener on the executor
+ * given to {@link #start(ClientConnectionListener, Executor)}, one at a time and in arrival order, so whatever the
+ * listener does with a message never holds up the other connections.
+ */
+@Slf4j
+public class NioClientConnection implements ClientConnection {
+    private static final int JSON_HEADER_SIZE_IN_BYTE = 4;
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    private final AtomicBoolean closed;
+    private final NioDebugServer server;
+    private final OutboundWatermark outboundWatermark;
+    private final Queue<Frame> messageToClientQueue;
+    private final Queue<Runnable> inboundEvents;
+    private final AtomicBoolean dispatching;
+    private final SocketChannel channel;
+    private final FrameScheduler<ByteBuffer[]> scheduler;
+    private final ArrayDeque<ByteBuffer[]> writing;
+
+    private volatile int compressionThreshold;
+    private ByteBuffer inbound;
+    private SelectionKey key;
+    private volatile Executor executor;
+    private volatile ClientConnectionListener listener;
+
+    NioClientConnection(NioDebugServer server, SocketChannel channel, OutboundWatermark outboundWatermark) {
+        this.server = server;
+        this.channel = channel;
+        this.closed = new AtomicBoolean(false);
+        this.messageToClientQueue = new ConcurrentLinkedQueue<>();
+        this.inboundEvents = new ConcurrentLinkedQueue<>();
+        this.dispatching = new AtomicBoolean(false);
+        this.scheduler = new FrameScheduler<>(OUTBOUND_MAX_PASSED_OVER);
+        this.writing = new ArrayDeque<>();
+        this.outboundWatermark = outboundWatermark;
+        this.compressionThreshold = FrameCompression.NO_COMPRESSION;
+        this.inbound = ByteBuffer.wrap(BufferPool.DEFAULT.acquire(SOCKET_BUFFER_SIZE_IN_BYTE));
+    }
+
+    @Override
+    public void start(ClientConnectionListener listener, Executor executor) {
+        this.executor = executor;
+        this.listener = listener;
+        // reads were held back until someone listens
+        this.server.requestWrite(this);
+    }
+
+    @Override
+    public void send(ServerClientMessage message, WireFormat wireFormat) {
+        if (this.closed.get()) {
+            return;
+        }
+
+        try {
+            ByteBuffer[] frame = DebugUtils.encodeMessage(message, wireFormat, this.compressionThreshold);
+            FramePriority priority = FramePriority.of(message);
+            this.outboundWatermark.queued(sizeOf(frame), priority);
+            this.messageToClientQueue.add(new Frame(frame, priority));
+            this.server.requestWrite(this);
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void awaitWritable(long maxPendingBytes) throws InterruptedException {
+        this.outboundWatermark.await(maxPendingBytes);
+    }
+
+    @Override
+    public void setCompressionThreshold(int thresholdInByte) {
+        this.compressionThreshold = thresholdInByte;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed.get() && this.channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        if (!this.closed.get()) {
+            this.server.requestClose(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(this.channel);
+    }
+
+    void register(Selector selector) throws IOException {
+        this.key = this.channel.register(selector, 0, this);
+    }
+
+    void handleRead() throws IOException {
+        if (this.channel.read(this.inbound) < 0) {
+            throw new EOFException();
+        }
+
+        this.inbound.flip();
+
+        int missing = 0;
+
+        while (this.inbound.remaining() >= JSON_HEADER_SIZE_IN_BYTE) {
+            int position = this.inbound.position();
+            int header = this.inbound.getInt(position);
+            int headerSize = BinaryFrameCodec.isBinaryFrame(header) ? BinaryFrameCodec.HEADER_SIZE_IN_BYTE : JSON_HEADER_SIZE_IN_BYTE;
+
+            if (this.inbound.remaining() < headerSize) break;
+
+            int length = headerSize == JSON_HEADER_SIZE_IN_BYTE ? header : this.inbound.getInt(position + JSON_HEADER_SIZE_IN_BYTE);
+
+            DebugUtils.checkFrameLength(length);
+
+            if (this.inbound.remaining() < headerSize + length) {
+                missing = headerSize + length;
+                break;
+            }
+
+            byte[] frame = BufferPool.DEFAULT.acquire(length);
+            System.arraycopy(this.inbound.array(), this.inbound.arrayOffset() + position + headerSize, frame, 0, length);
+            this.inbound.position(position + headerSize + length);
+            this.dispatch(() -> this.deliver(header, frame, length));
+        }
+
+        this.inbound.compact();
+
+        // grow for a frame larger than the buffer, go back to the default size once the large frames are through
+        boolean grow = missing > this.inbound.capacity();
+        boolean shrink = missing <= SOCKET_BUFFER_SIZE_IN_BYTE && this.inbound.capacity() > SOCKET_BUFFER_SIZE_IN_BYTE
+                && this.inbound.position() <= SOCKET_BUFFER_SIZE_IN_BYTE;
+
+        if (grow || shrink) {
+            int capacity = grow ? missing : SOCKET_BUFFER_SIZE_IN_BYTE;
+            ByteBuffer resized = ByteBuffer.wrap(BufferPool.DEFAULT.acquire(capacity));
+            this.inbound.flip();
+            resized.put(this.inbound);
+            BufferPool.DEFAULT.release(this.inbound.array());
+            this.inbound = resized;
+        }
+    }
+
+    void handleWrite() throws IOException {
+        if (this.closed.get()) {
+            return;
+        }
+
+        Frame queued;
+        while ((queued = this.messageToClientQueue.poll()) != null) {
+            this.scheduler.add(queued.buffers, queued.priority);
+        }
+
+        while (!this.writing.isEmpty() || !this.scheduler.isEmpty()) {
+            // every frame ready goes down in one gathering write, a burst shares packets instead of one write each
+            List<ByteBuffer> gather = new ArrayList<>();
+            long size = 0;
+
+            for (ByteBuffer[] frame : this.writing) {
+                Collections.addAll(gather, frame);
+                size += remaining(frame);
+            }
+
+            // frames are picked by priority right before they go down, a frame picked is then written to its end
+            ByteBuffer[] next;
+            while (size < SOCKET_BUFFER_SIZE_IN_BYTE && gather.size() < MAX_GATHERED_BUFFERS && (next = this.scheduler.poll()) != null) {
+                this.writing.add(next);
+                Collections.addAll(gather, next);
+                size += remaining(next);
+            }
+
+            this.channel.write(gather.toArray(new ByteBuffer[0]));
+
+            while (!this.writing.isEmpty()) {
+                ByteBuffer[] frame = this.writing.peek();
+
+                if (remaining(frame) > 0) {
+                    // socket buffer is full, wait for the selector to tell us it drained
+                    this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                this.writing.poll();
+                this.outboundWatermark.written(sizeOf(frame));
+            }
+        }
+
+        this.key.interestOps(this.listener == null ? 0 : SelectionKey.OP_READ);
+    }
+
+    void closeNow() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (this.key != null) {
+            this.key.cancel();
+        }
+
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+
+        BufferPool.DEFAULT.release(this.inbound.array());
+        this.messageToClientQueue.clear();
+        this.scheduler.clear();
+        this.writing.clear();
+        this.outboundWatermark.close();
+
+        if (this.listener != null) {
+            // after the frames already read, they are still delivered
+            this.dispatch(this.listener::onClose);
+        }
+    }
+
+    private void deliver(int header, byte[] frame, int length) {
+        ServerClientMessage message;
+
+        try {
+            message = DebugUtils.decodeMessage(header, frame, 0, length);
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            this.close();
+            return;
+        } finally {
+            BufferPool.DEFAULT.release(frame);
+        }
+
+        this.listener.onMessage(message);
+    }
+
+    private void dispatch(Runnable event) {
+        this.inboundEvents.add(event);
+
+        if (this.dispatching.compareAndSet(false, true)) {
+            this.executor.execute(this::drainInboundEvents);
+        }
+    }
+
+    private void drainInboundEvents() {
+        do {
+            Runnable event;
+
+            while ((event = this.inboundEvents.poll()) != null) {
+                try {
+                    event.run();
+                } catch (RuntimeException e) {
+                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                }
+            }
+            this.dispatching.set(false);
+        } while (!this.inboundEvents.isEmpty() && this.dispatching.compareAndSet(false, true));
+    }
+
+    private static long remaining(ByteBuffer[] frame) {
+        long remaining = 0;
+        for (ByteBuffer buffer : frame) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private static long sizeOf(ByteBuffer[] frame) {
+        long size = 0;
+        for (ByteBuffer buffer : frame) {
+            size += buffer.limit();
+        }
+        return size;
+    }
+
+    private static class Frame {
+        private final ByteBuffer[] buffers;
+        private final FramePriority priority;
+
+        private Frame(ByteBuffer[] buffers, FramePriority priority) {
+            this.buffers = buffers;
+            this.priority = priority;
+        }
+    }
+}
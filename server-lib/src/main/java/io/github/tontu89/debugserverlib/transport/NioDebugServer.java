@@ -0,0 +1,206 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
+
+/**
+ * Accepts, reads and writes every debug client from a single selector thread. Frames read are decoded and handed to
+ * the connection listener on the executor of their connection, the selector thread never runs listener code.
+ * <p>
+ * Interest ops are only ever touched from the selector thread: other threads queue the connection and wake the
+ * selector up.
+ */
+@Slf4j
+public class NioDebugServer implements AutoCloseable {
+    private final Consumer<NioClientConnection> onAccept;
+    private final Queue<NioClientConnection> pendingWrites;
+    private final Queue<NioClientConnection> pendingCloses;
+    private final TunnelBudget budget;
+
+    private volatile boolean stop;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    public NioDebugServer(Consumer<NioClientConnection> onAccept) {
+        this(onAccept, TunnelBudget.UNLIMITED);
+    }
+
+    /**
+     * @param budget shared by the outbound queues of all clients
+     */
+    public NioDebugServer(Consumer<NioClientConnection> onAccept, TunnelBudget budget) {
+        this.onAccept = onAccept;
+        this.budget = budget;
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.pendingCloses = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Binds the given port, or a random one if it is null or already taken.
+     */
+    public void bind(Integer port) throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+
+        try {
+            this.serverChannel.bind(port == null ? null : new InetSocketAddress(port));
+        } catch (IOException e) {
+            log.error("DebugLib: Cannot start debug server on port {}", port);
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            this.serverChannel.close();
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.bind(null);
+        }
+
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        log.info("DebugLib: Started debug server on port {}", this.getLocalPort());
+    }
+
+    public int getLocalPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Runs the selector loop on the calling thread until {@link #close()}.
+     */
+    public void run() {
+        while (!this.stop) {
+            try {
+                this.selector.select();
+
+                this.processPendingCloses();
+                this.processPendingWrites();
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        this.accept();
+                        continue;
+                    }
+
+                    NioClientConnection connection = (NioClientConnection) key.attachment();
+
+                    try {
+                        if (key.isReadable()) {
+                            connection.handleRead();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.handleWrite();
+                        }
+                    } catch (EOFException e) {
+                        connection.closeNow();
+                    } catch (Throwable e) {
+                        if (connection.isOpen()) {
+                            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                        }
+                        connection.closeNow();
+                    }
+                }
+            } catch (Throwable e) {
+                if (!this.stop) {
+                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                }
+            }
+        }
+
+        this.selector.keys().stream()
+                .filter(k -> k.attachment() instanceof NioClientConnection)
+                .forEach(k -> ((NioClientConnection) k.attachment()).closeNow());
+    }
+
+    @Override
+    public void close() {
+        this.stop = true;
+
+        try {
+            if (this.serverChannel != null) {
+                this.serverChannel.close();
+            }
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+
+        if (this.selector != null) {
+            this.selector.wakeup();
+        }
+    }
+
+    void requestWrite(NioClientConnection connection) {
+        this.pendingWrites.add(connection);
+        this.selector.wakeup();
+    }
+
+    void requestClose(NioClientConnection connection) {
+        this.pendingCloses.add(connection);
+        this.selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+
+        if (channel == null) return;
+
+        log.info("DebugLib: A new client is connected : " + channel);
+
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            NioClientConnection connection = new NioClientConnection(this, channel, this.budget.newWatermark());
+            connection.register(this.selector);
+            this.onAccept.accept(connection);
+        } catch (Throwable e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            channel.close();
+        }
+    }
+
+    private void processPendingWrites() {
+        NioClientConnection connection;
+
+        while ((connection = this.pendingWrites.poll()) != null) {
+            try {
+                connection.handleWrite();
+            } catch (Throwable e) {
+                if (connection.isOpen()) {
+                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                }
+                connection.closeNow();
+            }
+        }
+    }
+
+    private void processPendingCloses() {
+        NioClientConnection connection;
+
+        while ((connection = this.pendingCloses.poll()) != null) {
+            try {
+                // give queued frames (e.g. the answer to SERVER_EXIT) a last chance to go out
+                connection.handleWrite();
+            } catch (Throwable ignored) {
+            }
+            connection.closeNow();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+
+/**
+ * Counts payload bytes queued on a connection but not yet written, so a streamed body is read from its source no
+ * faster than the socket drains it. {@link #queued(long)} also holds senders back once the connection window or the
+ * {@link TunnelBudget} it draws from is used up.
+ */
+public class OutboundWatermark {
+    private final TunnelBudget budget;
+
+    private boolean closed;
+    private long pendingBytes;
+    private long budgetBytes;
+
+    public OutboundWatermark() {
+        this(TunnelBudget.UNLIMITED);
+    }
+
+    public OutboundWatermark(TunnelBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Credit grants are control frames, they never count against a window: they are what frees it.
+     */
+    public static int payloadSize(ServerClientMessage message) {
+        if ((message.getFlags() & BinaryFrameCodec.FLAG_STREAM_CREDIT) != 0) {
+            return 0;
+        }
+
+        byte[] data = message.getRequest() != null ? message.getRequest().getData() : message.getResponse() != null ? message.getResponse().getData() : null;
+        return data == null ? 0 : data.length;
+    }
+
+    /**
+     * Called before the message is queued, waits or fails as the {@link FlowControlPolicy} says while there is no room.
+     * Only {@link FramePriority#BULK} frames wait, the others are single small frames and are counted right away, they
+     * must not queue up behind the bulk data filling the window.
+     *
+     * @throws FlowControlException if the message must not be queued
+     */
+    public void queued(long bytes, FramePriority priority) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        boolean wait = priority == FramePriority.BULK;
+
+        synchronized (this) {
+            long window = this.budget.getConnectionWindowInByte();
+            this.budget.await(this, () -> wait && !this.closed && this.pendingBytes > 0 && this.pendingBytes > window - bytes, "connection window of " + window + " bytes");
+
+            if (this.closed) {
+                return;
+            }
+            this.pendingBytes += bytes;
+        }
+
+        try {
+            this.budget.acquire(bytes, wait);
+        } catch (FlowControlException e) {
+            synchronized (this) {
+                if (!this.closed) {
+                    this.pendingBytes -= bytes;
+                    this.notifyAll();
+                }
+            }
+            throw e;
+        }
+
+        boolean closedMeanwhile;
+
+        synchronized (this) {
+            closedMeanwhile = this.closed;
+
+            if (!closedMeanwhile) {
+                this.budgetBytes += bytes;
+            }
+        }
+
+        if (closedMeanwhile) {
+            this.budget.release(bytes);
+        }
+    }
+
+    public void written(long bytes) {
+        long released;
+
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+
+            this.pendingBytes -= bytes;
+            released = Math.min(bytes, this.budgetBytes);
+            this.budgetBytes -= released;
+            this.notifyAll();
+        }
+
+        this.budget.release(released);
+    }
+
+    /**
+     * Releases waiters for good, the connection will not drain anymore.
+     */
+    public void close() {
+        long released;
+
+        synchronized (this) {
+            this.closed = true;
+            this.pendingBytes = 0;
+            released = this.budgetBytes;
+            this.budgetBytes = 0;
+            this.notifyAll();
+        }
+
+        this.budget.release(released);
+    }
+
+    public synchronized long getPendingBytes() {
+        return this.pendingBytes;
+    }
+
+    /**
+     * Blocks while more than {@code maxPendingBytes} are queued and the connection is open.
+     */
+    public synchronized void await(long maxPendingBytes) throws InterruptedException {
+        while (!this.closed && this.pendingBytes > maxPendingBytes) {
+            this.wait();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests sent to the peer and still waiting for their response, by message id. The future of a request is completed
+ * as soon as its response comes in, nobody polls for it.
+ */
+public class PendingRequests {
+    private final Map<String, CompletableFuture<ServerClientMessage>> pending = new ConcurrentHashMap<>();
+    private final Executor completionExecutor;
+    private volatile Throwable closedCause;
+
+    /**
+     * Completes futures on the reader thread, for callers that only wait on them
+     */
+    public PendingRequests() {
+        this(null);
+    }
+
+    /**
+     * @param completionExecutor runs the completion of futures and whatever callers chained to them, so that work
+     *                           never holds up the reader of the connection
+     */
+    public PendingRequests(Executor completionExecutor) {
+        this.completionExecutor = completionExecutor;
+    }
+
+    /**
+     * Registers the request before it is sent, so a fast response can't arrive ahead of its future.
+     *
+     * @param timeoutInMs completes the future with a {@link java.util.concurrent.TimeoutException} after that long,
+     *                    {@link Long#MAX_VALUE} to wait until the response or {@link #failAll(Throwable)}
+     */
+    public CompletableFuture<ServerClientMessage> register(String messageId, long timeoutInMs) {
+        CompletableFuture<ServerClientMessage> future = new CompletableFuture<>();
+
+        if (this.closedCause != null) {
+            future.completeExceptionally(this.closedCause);
+            return future;
+        }
+
+        this.pending.put(messageId, future);
+
+        if (timeoutInMs != Long.MAX_VALUE) {
+            future.orTimeout(timeoutInMs, TimeUnit.MILLISECONDS);
+        }
+
+        future.whenComplete((response, e) -> this.pending.remove(messageId, future));
+
+        // close may have run between the check and the put
+        if (this.closedCause != null) {
+            future.completeExceptionally(this.closedCause);
+        }
+
+        return future;
+    }
+
+    /**
+     * @return false if nobody waits for this response anymore, e.g. it came after the timeout
+     */
+    public boolean complete(ServerClientMessage response) {
+        CompletableFuture<ServerClientMessage> future = response.getId() == null ? null : this.pending.remove(response.getId());
+
+        if (future == null || future.isDone()) {
+            return false;
+        }
+
+        if (this.completionExecutor != null) {
+            try {
+                future.completeAsync(() -> response, this.completionExecutor);
+                return true;
+            } catch (RejectedExecutionException e) {
+                // pool shut down or saturated, the waiter still gets its response
+            }
+        }
+        return future.complete(response);
+    }
+
+    public void cancel(String messageId) {
+        CompletableFuture<ServerClientMessage> future = this.pending.remove(messageId);
+
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Fails the request if it still waits, its answer won't come
+     */
+    public void fail(String messageId, Throwable cause) {
+        CompletableFuture<ServerClientMessage> future = this.pending.remove(messageId);
+
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Fails every waiting request, as well as the ones registered later, the connection is gone.
+     */
+    public void failAll(Throwable cause) {
+        this.closedCause = cause;
+
+        List<CompletableFuture<ServerClientMessage>> futures = new ArrayList<>(this.pending.values());
+        this.pending.clear();
+        futures.forEach(future -> future.completeExceptionally(cause));
+    }
+
+    public int size() {
+        return this.pending.size();
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Outbound queue of a sender loop handing frames out by {@link FramePriority} rather than in arrival order. Producers
+ * go through a {@link MpscRingBuffer}, the consumer moves what arrived into a {@link FrameScheduler} and picks from it.
+ */
+public class PriorityFrameQueue<E> {
+    private final MpscRingBuffer<E> intake;
+    private final FrameScheduler<E> scheduler;
+    private final Function<E, FramePriority> classifier;
+    private final int capacity;
+
+    /**
+     * @param maxPassedOver see {@link FrameScheduler}
+     */
+    public PriorityFrameQueue(int capacity, int maxPassedOver, Function<E, FramePriority> classifier) {
+        this.intake = new MpscRingBuffer<>(capacity);
+        this.scheduler = new FrameScheduler<>(maxPassedOver);
+        this.classifier = classifier;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @see MpscRingBuffer#put(Object)
+     */
+    public boolean put(E frame) throws InterruptedException {
+        return this.intake.put(frame);
+    }
+
+    /**
+     * Consumer side only.
+     *
+     * @return the most urgent frame, null if there is none
+     */
+    public E poll() {
+        E frame;
+
+        // never holds more than the intake, a flood of frames still waits for the consumer
+        while (this.scheduler.size() < this.capacity && (frame = this.intake.poll()) != null) {
+            this.scheduler.add(frame, this.classifier.apply(frame));
+        }
+        return this.scheduler.poll();
+    }
+
+    /**
+     * Consumer side only, parks until a frame comes in.
+     *
+     * @return the most urgent frame, null once the queue is closed and drained
+     */
+    public E take() throws InterruptedException {
+        E frame = this.poll();
+        return frame != null ? frame : this.schedule(this.intake.take());
+    }
+
+    /**
+     * Consumer side only, parks until a frame comes in or the timeout elapses.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E frame = this.poll();
+        return frame != null || timeout <= 0 ? frame : this.schedule(this.intake.poll(timeout, unit));
+    }
+
+    /**
+     * @see MpscRingBuffer#close()
+     */
+    public void close() {
+        this.intake.close();
+    }
+
+    /**
+     * Ranks the frame the consumer woke up for with whatever came in meanwhile
+     */
+    private E schedule(E frame) {
+        if (frame == null) {
+            return null;
+        }
+
+        this.scheduler.add(frame, this.classifier.apply(frame));
+        return this.poll();
+    }
+}
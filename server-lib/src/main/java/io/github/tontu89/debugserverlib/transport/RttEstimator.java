@@ -0,0 +1,62 @@
+package io.github.tontu89.debugserverlib.transport;
+
+/**
+ * Smoothed round trip time of a connection and how much it varies, estimated the way TCP does (RFC 6298). The timeout
+ * derived from them is what an answer may take before it counts as lost, it doubles on every loss until the next
+ * sample.
+ */
+public class RttEstimator {
+    private static final double RTT_GAIN = 1.0 / 8;
+    private static final double VARIATION_GAIN = 1.0 / 4;
+    private static final int VARIATION_FACTOR = 4;
+
+    private final long minTimeoutMs;
+    private final long maxTimeoutMs;
+
+    private boolean sampled;
+    private double smoothedRttMs;
+    private double rttVariationMs;
+    private long timeoutMs;
+
+    /**
+     * @param maxTimeoutMs also the timeout until the first sample
+     */
+    public RttEstimator(long minTimeoutMs, long maxTimeoutMs) {
+        this.minTimeoutMs = Math.min(minTimeoutMs, maxTimeoutMs);
+        this.maxTimeoutMs = maxTimeoutMs;
+        this.timeoutMs = maxTimeoutMs;
+    }
+
+    public synchronized void sample(double rttMs) {
+        if (!this.sampled) {
+            this.smoothedRttMs = rttMs;
+            this.rttVariationMs = rttMs / 2;
+            this.sampled = true;
+        } else {
+            this.rttVariationMs += VARIATION_GAIN * (Math.abs(this.smoothedRttMs - rttMs) - this.rttVariationMs);
+            this.smoothedRttMs += RTT_GAIN * (rttMs - this.smoothedRttMs);
+        }
+
+        long timeout = Math.round(this.smoothedRttMs + VARIATION_FACTOR * this.rttVariationMs);
+        this.timeoutMs = Math.max(this.minTimeoutMs, Math.min(this.maxTimeoutMs, timeout));
+    }
+
+    /**
+     * An answer did not come in time, wait longer for the next one
+     */
+    public synchronized void backOff() {
+        this.timeoutMs = Math.min(this.maxTimeoutMs, this.timeoutMs * 2);
+    }
+
+    public synchronized long getTimeoutMs() {
+        return this.timeoutMs;
+    }
+
+    public synchronized double getSmoothedRttMs() {
+        return this.smoothedRttMs;
+    }
+
+    public synchronized double getRttVariationMs() {
+        return this.rttVariationMs;
+    }
+}
@@ -0,0 +1,210 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.LOG_ERROR_PREFIX;
+import static io.github.tontu89.debugserverlib.utils.Constants.MESSAGE_QUEUE_CAPACITY;
+import static io.github.tontu89.debugserverlib.utils.Constants.CLOSE_DRAIN_TIME_OUT_MS;
+import static io.github.tontu89.debugserverlib.utils.Constants.OUTBOUND_MAX_PASSED_OVER;
+import static io.github.tontu89.debugserverlib.utils.Constants.SOCKET_BUFFER_SIZE_IN_BYTE;
+
+/**
+ * Blocking {@link ClientConnection}: one reader and one sender loop per client, both running on the executor given
+ * to {@link #start(ClientConnectionListener, Executor)}.
+ */
+@Slf4j
+public class SocketClientConnection implements ClientConnection {
+    private final AtomicBoolean closed;
+    private final PriorityFrameQueue<Frame> messageToClientQueue;
+    private final DataInputStream dis;
+    private final DataOutputStream dos;
+    private final OutboundWatermark outboundWatermark;
+    private final Socket socket;
+    private final int flushMaxLatencyMicros;
+
+    private volatile int compressionThreshold;
+    private Executor executor;
+    private ClientConnectionListener listener;
+    private Future<Void> sendMessageToClientFuture;
+
+    public SocketClientConnection(Socket socket) throws IOException {
+        this(socket, 0, TunnelBudget.UNLIMITED);
+    }
+
+    /**
+     * @param flushMaxLatencyMicros how long a frame may wait for others to share its flush, see {@link CoalescingSender}
+     * @param budget                shared by the outbound queues of all clients
+     */
+    public SocketClientConnection(Socket socket, int flushMaxLatencyMicros, TunnelBudget budget) throws IOException {
+        this.socket = socket;
+        this.flushMaxLatencyMicros = flushMaxLatencyMicros;
+        this.closed = new AtomicBoolean(false);
+        this.messageToClientQueue = new PriorityFrameQueue<>(MESSAGE_QUEUE_CAPACITY, OUTBOUND_MAX_PASSED_OVER, frame -> FramePriority.of(frame.message));
+        this.outboundWatermark = budget.newWatermark();
+        this.compressionThreshold = FrameCompression.NO_COMPRESSION;
+
+        // frames are flushed explicitly, don't let Nagle hold them back
+        this.socket.setTcpNoDelay(true);
+
+        // buffered streams, so a frame costs one read/write call instead of one per chunk
+        this.dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), SOCKET_BUFFER_SIZE_IN_BYTE));
+        this.dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), SOCKET_BUFFER_SIZE_IN_BYTE));
+    }
+
+    @Override
+    public void start(ClientConnectionListener listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+        this.sendMessageToClientFuture = CompletableFuture.runAsync(this::sendLoop, this.executor);
+        CompletableFuture.runAsync(this::readLoop, this.executor);
+    }
+
+    @Override
+    public void send(ServerClientMessage message, WireFormat wireFormat) {
+        int payloadSize = OutboundWatermark.payloadSize(message);
+        this.outboundWatermark.queued(payloadSize, FramePriority.of(message));
+
+        try {
+            if (!this.messageToClientQueue.put(new Frame(message, wireFormat))) {
+                this.outboundWatermark.written(payloadSize);
+            }
+        } catch (InterruptedException e) {
+            this.outboundWatermark.written(payloadSize);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void awaitWritable(long maxPendingBytes) throws InterruptedException {
+        this.outboundWatermark.await(maxPendingBytes);
+    }
+
+    @Override
+    public void setCompressionThreshold(int thresholdInByte) {
+        this.compressionThreshold = thresholdInByte;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed.get() && !this.socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        // let the sender flush what is already queued, e.g. the answer to SERVER_EXIT
+        this.messageToClientQueue.close();
+
+        try {
+            if (this.sendMessageToClientFuture != null) {
+                this.sendMessageToClientFuture.get(CLOSE_DRAIN_TIME_OUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+
+        try {
+            this.dis.close();
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+
+        try {
+            this.dos.close();
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+
+        try {
+            if (!this.socket.isClosed()) {
+                this.socket.close();
+            }
+        } catch (IOException e) {
+            log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
+
+        this.outboundWatermark.close();
+
+        this.listener.onClose();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(this.socket);
+    }
+
+    private void readLoop() {
+        while (this.isOpen()) {
+            try {
+                this.listener.onMessage(DebugUtils.readMessage(this.dis));
+            } catch (EOFException e) {
+                break;
+            } catch (SocketException e) {
+                if (!this.closed.get()) {
+                    log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                }
+                break;
+            } catch (IOException e) {
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+            } catch (Throwable e) {
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                break;
+            }
+        }
+
+        this.closeAsync();
+    }
+
+    private void sendLoop() {
+        try {
+            new CoalescingSender<>(this.messageToClientQueue, this.dos, this.outboundWatermark, this.flushMaxLatencyMicros, SOCKET_BUFFER_SIZE_IN_BYTE, frame -> {
+                DebugUtils.writeFrame(this.dos, frame.message, frame.wireFormat, this.compressionThreshold);
+                return OutboundWatermark.payloadSize(frame.message);
+            }).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            if (!this.closed.get()) {
+                log.error(LOG_ERROR_PREFIX + e.getMessage(), e);
+                this.closeAsync();
+            }
+        }
+    }
+
+    private void closeAsync() {
+        if (!this.closed.get()) {
+            CompletableFuture.runAsync(this::close, this.executor);
+        }
+    }
+
+    private static class Frame {
+        private final ServerClientMessage message;
+        private final WireFormat wireFormat;
+
+        private Frame(ServerClientMessage message, WireFormat wireFormat) {
+            this.message = message;
+            this.wireFormat = wireFormat;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import io.github.tontu89.debugserverlib.model.MessageRequest;
+import io.github.tontu89.debugserverlib.model.MessageResponse;
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_ABORT;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_CHUNK;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_CREDIT;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_END;
+import static io.github.tontu89.debugserverlib.transport.BinaryFrameCodec.FLAG_STREAM_START;
+import static io.github.tontu89.debugserverlib.utils.Constants.STREAM_WINDOW_IN_BYTE;
+
+/**
+ * Routes chunk frames of streamed messages into the {@link StreamedBody} of their head message. One per connection,
+ * fed from the connection reader in frame order.
+ * <p>
+ * Once flow control is enabled it also keeps the {@link StreamWindow} of the streams this side sends, and grants
+ * credit back for the streams it receives as their consumer reads them. A stream whose consumer stops reading before
+ * its end is cancelled with a credit frame flagged {@link BinaryFrameCodec#FLAG_STREAM_ABORT}: the sender closes its
+ * window and answers with an abort chunk instead of sending the rest.
+ */
+@Slf4j
+public class StreamAssembler {
+    private final Map<String, StreamedBody> openBodies;
+    private final Map<String, StreamWindow> outboundWindows;
+    private final Consumer<ServerClientMessage> creditSink;
+
+    private volatile boolean flowControl;
+
+    public StreamAssembler() {
+        this(null);
+    }
+
+    /**
+     * @param creditSink sends credit frames to the peer, once flow control is enabled
+     */
+    public StreamAssembler(Consumer<ServerClientMessage> creditSink) {
+        this.openBodies = new ConcurrentHashMap<>();
+        this.outboundWindows = new ConcurrentHashMap<>();
+        this.creditSink = creditSink;
+    }
+
+    /**
+     * Called once the peer agreed on {@link io.github.tontu89.debugserverlib.utils.Constants#CAPABILITY_FLOW_CONTROL}
+     */
+    public void enableFlowControl() {
+        this.flowControl = this.creditSink != null;
+    }
+
+    /**
+     * @return the credit window of a stream about to be sent, null without flow control
+     */
+    public StreamWindow openOutbound(ServerClientMessage head) {
+        if (!this.flowControl) {
+            return null;
+        }
+
+        StreamWindow window = new StreamWindow(STREAM_WINDOW_IN_BYTE);
+        this.outboundWindows.put(keyOf(head), window);
+        return window;
+    }
+
+    public void closeOutbound(ServerClientMessage head) {
+        StreamWindow window = this.outboundWindows.remove(keyOf(head));
+
+        if (window != null) {
+            window.close();
+        }
+    }
+
+    /**
+     * @return the message to dispatch, or null if the frame was a chunk of a streamed message
+     */
+    public ServerClientMessage accept(ServerClientMessage frame) {
+        int flags = frame.getFlags();
+
+        if ((flags & FLAG_STREAM_CREDIT) != 0) {
+            this.grant(frame);
+            return null;
+        }
+
+        if ((flags & FLAG_STREAM_START) != 0) {
+            StreamedBody body = this.flowControl
+                    ? new StreamedBody(credit -> this.sendCredit(frame, credit), () -> this.sendCancel(frame), STREAM_WINDOW_IN_BYTE / 2)
+                    : new StreamedBody();
+            this.openBodies.put(keyOf(frame), body);
+
+            if (frame.getRequest() != null) {
+                frame.getRequest().setDataStream(body);
+            } else if (frame.getResponse() != null) {
+                frame.getResponse().setDataStream(body);
+            }
+            return frame;
+        }
+
+        if ((flags & FLAG_STREAM_CHUNK) == 0) {
+            return frame;
+        }
+
+        String key = keyOf(frame);
+        StreamedBody body = this.openBodies.get(key);
+
+        if (body == null) {
+            log.error("DebugLib: Drop chunk of unknown stream {}", key);
+            return null;
+        }
+
+        body.offer(frame.getRequest() != null ? frame.getRequest().getData() : frame.getResponse().getData());
+
+        if ((flags & FLAG_STREAM_ABORT) != 0) {
+            this.openBodies.remove(key);
+            body.fail(new IOException("Stream " + key + " aborted by sender"));
+        } else if ((flags & FLAG_STREAM_END) != 0) {
+            this.openBodies.remove(key);
+            body.complete();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return streams still going through the connection either way, outbound ones only counted with flow control
+     */
+    public int openStreams() {
+        return this.openBodies.size() + this.outboundWindows.size();
+    }
+
+    /**
+     * Fails every stream still open, called when the connection is lost.
+     */
+    public void failAll() {
+        this.openBodies.forEach((key, body) -> body.fail(new IOException("Connection closed while streaming " + key)));
+        this.openBodies.clear();
+        this.outboundWindows.values().forEach(StreamWindow::close);
+        this.outboundWindows.clear();
+    }
+
+    private void grant(ServerClientMessage frame) {
+        if ((frame.getFlags() & FLAG_STREAM_ABORT) != 0) {
+            StreamWindow window = this.outboundWindows.remove(keyOf(frame));
+
+            if (window != null) {
+                log.debug("DebugLib: Stream {} cancelled by the receiver", keyOf(frame));
+                window.close();
+            }
+            return;
+        }
+
+        byte[] data = frame.getRequest() != null ? frame.getRequest().getData() : frame.getResponse() != null ? frame.getResponse().getData() : null;
+        StreamWindow window = this.outboundWindows.get(keyOf(frame));
+
+        if (window != null && data != null && data.length == Integer.BYTES) {
+            window.grant(ByteBuffer.wrap(data).getInt());
+        }
+    }
+
+    private void sendCredit(ServerClientMessage head, int credit) {
+        this.sendControl(head, FLAG_STREAM_CREDIT, ByteBuffer.allocate(Integer.BYTES).putInt(credit).array());
+    }
+
+    private void sendCancel(ServerClientMessage head) {
+        this.sendControl(head, FLAG_STREAM_CREDIT | FLAG_STREAM_ABORT, null);
+    }
+
+    private void sendControl(ServerClientMessage head, int flags, byte[] data) {
+        ServerClientMessage.ServerClientMessageBuilder builder = ServerClientMessage.builder()
+                .id(head.getId())
+                .type(head.getType())
+                .flags(flags);
+
+        if (head.getType() == ServerClientMessage.Type.REQUEST) {
+            builder.request(MessageRequest.builder().data(data).build());
+        } else {
+            builder.response(MessageResponse.builder().data(data).build());
+        }
+
+        try {
+            this.creditSink.accept(builder.build());
+        } catch (RuntimeException e) {
+            log.error("DebugLib: Cannot send credit frame of stream {}: {}", keyOf(head), e.getMessage());
+        }
+    }
+
+    private static String keyOf(ServerClientMessage frame) {
+        return frame.getType() + ":" + frame.getId();
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.io.IOException;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.MAX_REQUEST_TIME_OUT_MS;
+
+/**
+ * Credit of one outgoing stream: how many more chunk bytes the receiver accepts. The receiver grants credit back with
+ * {@link BinaryFrameCodec#FLAG_STREAM_CREDIT} frames as its consumer reads, so a slow consumer holds the sender back
+ * instead of piling chunks up on the receiving heap.
+ */
+public class StreamWindow {
+    private long credit;
+    private boolean closed;
+
+    public StreamWindow(long initialCredit) {
+        this.credit = initialCredit;
+    }
+
+    public synchronized void grant(long bytes) {
+        this.credit = bytes > Long.MAX_VALUE - this.credit ? Long.MAX_VALUE : this.credit + bytes;
+        this.notifyAll();
+    }
+
+    /**
+     * Blocks until the receiver granted {@code bytes} of credit
+     */
+    public synchronized void acquire(long bytes) throws IOException {
+        long deadline = System.currentTimeMillis() + MAX_REQUEST_TIME_OUT_MS;
+
+        while (!this.closed && this.credit < bytes) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                throw new IOException("Timeout after " + MAX_REQUEST_TIME_OUT_MS + " ms waiting for stream credit");
+            }
+
+            try {
+                this.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for stream credit");
+            }
+        }
+
+        if (this.closed) {
+            throw new IOException("Stream closed while waiting for credit");
+        }
+        this.credit -= bytes;
+    }
+
+    public synchronized void close() {
+        this.closed = true;
+        this.notifyAll();
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.MAX_REQUEST_TIME_OUT_MS;
+
+/**
+ * Receiving end of a streamed payload: the connection reader offers chunks as they arrive, the consumer reads them
+ * as a plain {@link InputStream} and may start writing them out before the last chunk is received.
+ */
+public class StreamedBody extends InputStream {
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final IntConsumer creditSink;
+    private final Runnable cancelSink;
+    private final int creditBatchInByte;
+
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private byte[] current;
+    private int position;
+    private boolean ended;
+    private int consumedSinceGrant;
+
+    public StreamedBody() {
+        this(null, null, 0);
+    }
+
+    /**
+     * @param creditSink        told how many bytes were consumed, so the sender gets them back as credit
+     * @param cancelSink        told when the body is closed before its end, so the sender stops reading its source
+     * @param creditBatchInByte consumed bytes to gather before granting them, half the window keeps the sender busy
+     */
+    public StreamedBody(IntConsumer creditSink, Runnable cancelSink, int creditBatchInByte) {
+        this.chunks = new LinkedBlockingQueue<>();
+        this.creditSink = creditSink;
+        this.cancelSink = cancelSink;
+        this.creditBatchInByte = creditBatchInByte;
+    }
+
+    public void offer(byte[] chunk) {
+        if (!this.closed && chunk != null && chunk.length > 0) {
+            this.chunks.add(chunk);
+        }
+    }
+
+    public void complete() {
+        this.chunks.add(END);
+    }
+
+    public void fail(IOException e) {
+        this.failure = e;
+        this.chunks.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!this.nextChunk()) {
+            return -1;
+        }
+
+        int read = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current, this.position, b, off, read);
+        this.position += read;
+        this.consumed(read);
+
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return this.current == null ? 0 : this.current.length - this.position;
+    }
+
+    @Override
+    public void close() {
+        boolean wasOpen = !this.closed && !this.ended;
+
+        this.closed = true;
+        this.chunks.clear();
+
+        if (wasOpen && this.cancelSink != null) {
+            // nobody reads anymore, chunks still in flight are dropped until the sender's abort chunk
+            this.cancelSink.run();
+        }
+    }
+
+    private void consumed(int bytes) {
+        if (this.creditSink == null) {
+            return;
+        }
+
+        this.consumedSinceGrant += bytes;
+
+        if (this.consumedSinceGrant >= this.creditBatchInByte) {
+            this.creditSink.accept(this.consumedSinceGrant);
+            this.consumedSinceGrant = 0;
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        while (this.current == null || this.position >= this.current.length) {
+            if (this.ended || this.closed) {
+                return false;
+            }
+
+            try {
+                this.current = this.chunks.poll(MAX_REQUEST_TIME_OUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            if (this.current == null) {
+                throw new IOException("Timeout after " + MAX_REQUEST_TIME_OUT_MS + " ms waiting for streamed body");
+            }
+
+            this.position = 0;
+
+            if (this.current == END) {
+                this.ended = true;
+                this.current = null;
+
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+            }
+        }
+        return true;
+    }
+}
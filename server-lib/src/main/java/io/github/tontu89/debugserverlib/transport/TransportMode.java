@@ -0,0 +1,12 @@
+package io.github.tontu89.debugserverlib.transport;
+
+/**
+ * How {@link io.github.tontu89.debugserverlib.RemoteDebugServer} serves debug clients.
+ * <ul>
+ *     <li>BLOCKING: one reader and one sender thread per client on top of a blocking socket</li>
+ *     <li>NIO: a single selector thread for all clients, commands run on a shared worker pool</li>
+ * </ul>
+ */
+public enum TransportMode {
+    BLOCKING, NIO
+}
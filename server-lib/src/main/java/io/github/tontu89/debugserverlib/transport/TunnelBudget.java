@@ -0,0 +1,90 @@
+package io.github.tontu89.debugserverlib.transport;
+
+import java.util.function.BooleanSupplier;
+
+import static io.github.tontu89.debugserverlib.utils.Constants.MAX_REQUEST_TIME_OUT_MS;
+
+/**
+ * Bytes queued for sending but not yet written, counted over every connection sharing the budget, so a few slow
+ * peers can't make the process buffer more than {@code maxBytes}. Each connection on top of that queues at most
+ * {@code connectionWindowInByte}, see {@link #newWatermark()}.
+ * <p>
+ * A single message is always let through while nothing else is queued, however large it is.
+ */
+public class TunnelBudget {
+    public static final TunnelBudget UNLIMITED = new TunnelBudget(Long.MAX_VALUE, Long.MAX_VALUE, FlowControlPolicy.BLOCK, MAX_REQUEST_TIME_OUT_MS);
+
+    private final long maxBytes;
+    private final long connectionWindowInByte;
+    private final FlowControlPolicy policy;
+    private final long blockTimeoutMs;
+
+    private long usedBytes;
+
+    public TunnelBudget(long maxBytes, long connectionWindowInByte, FlowControlPolicy policy, long blockTimeoutMs) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.connectionWindowInByte = connectionWindowInByte > 0 ? connectionWindowInByte : Long.MAX_VALUE;
+        this.policy = policy == null ? FlowControlPolicy.BLOCK : policy;
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    /**
+     * @return the watermark of a new connection, drawing from this budget
+     */
+    public OutboundWatermark newWatermark() {
+        return new OutboundWatermark(this);
+    }
+
+    /**
+     * @param wait false to take the bytes even if the budget is used up
+     */
+    public synchronized void acquire(long bytes, boolean wait) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        this.await(() -> wait && this.usedBytes > 0 && this.usedBytes > this.maxBytes - bytes, "tunnel budget of " + this.maxBytes + " bytes");
+        this.usedBytes += bytes;
+    }
+
+    public synchronized void release(long bytes) {
+        if (bytes > 0) {
+            this.usedBytes -= bytes;
+            this.notifyAll();
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    public long getConnectionWindowInByte() {
+        return this.connectionWindowInByte;
+    }
+
+    /**
+     * Waits on {@code monitor}, which the caller holds, while {@code full} says there is no room, as the policy says.
+     */
+    void await(Object monitor, BooleanSupplier full, String what) {
+        long deadline = System.currentTimeMillis() + this.blockTimeoutMs;
+
+        while (full.getAsBoolean()) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (this.policy == FlowControlPolicy.FAIL_FAST || remaining <= 0) {
+                throw new FlowControlException("No room left in the " + what);
+            }
+
+            try {
+                monitor.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FlowControlException("Interrupted while waiting for room in the " + what);
+            }
+        }
+    }
+
+    private void await(BooleanSupplier full, String what) {
+        this.await(this, full, what);
+    }
+}
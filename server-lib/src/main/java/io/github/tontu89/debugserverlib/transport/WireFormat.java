@@ -0,0 +1,13 @@
+package io.github.tontu89.debugserverlib.transport;
+
+/**
+ * Encoding of {@link io.github.tontu89.debugserverlib.model.ServerClientMessage} on the tunnel.
+ * <ul>
+ *     <li>JSON: length prefixed Jackson document, payload carried as Base64 (legacy format)</li>
+ *     <li>BINARY: versioned {@link BinaryFrameCodec} frame, payload carried as raw bytes</li>
+ * </ul>
+ * Readers accept both formats, so a peer can always fall back to JSON.
+ */
+public enum WireFormat {
+    JSON, BINARY
+}
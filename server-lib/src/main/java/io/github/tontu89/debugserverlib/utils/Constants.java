@@ -4,10 +4,34 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class Constants {
     public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-    public static final int POLL_QUEUE_TIMEOUT_MS = 200;
-    public static final int MESSAGE_CHUNK_SIZE_IN_BYTE = 10;
+    public static final int CLOSE_DRAIN_TIME_OUT_MS = 1000;
+    public static final int MESSAGE_QUEUE_CAPACITY = 1024;
+    public static final int MAX_CONNECTIONS = 64;
+    public static final int REQUEST_THREADS = 16;
+    public static final int OUTBOUND_MAX_PASSED_OVER = 8;
+    public static final int SOCKET_BUFFER_SIZE_IN_BYTE = 64 * 1024;
+    public static final int MAX_FRAME_SIZE_IN_BYTE = 256 * 1024 * 1024;
+    public static final int STREAM_THRESHOLD_IN_BYTE = 256 * 1024;
+    public static final int STREAM_CHUNK_SIZE_IN_BYTE = 64 * 1024;
+    public static final int STREAM_MAX_PENDING_IN_BYTE = 1024 * 1024;
+    public static final int STREAM_WINDOW_IN_BYTE = 1024 * 1024;
+    public static final int CONNECTION_WINDOW_IN_BYTE = 4 * 1024 * 1024;
+    public static final long TUNNEL_BUFFER_MAX_IN_BYTE = 64L * 1024 * 1024;
+    public static final int FLOW_CONTROL_BLOCK_TIME_OUT_MS = 30 * 1000;
+    public static final int COMPRESSION_THRESHOLD_IN_BYTE = 1024;
+    public static final int HELLO_TIME_OUT_MS = 5000;
+    public static final String CAPABILITY_DEFLATE = "deflate";
+    public static final String CAPABILITY_FILE_SYNC = "file-sync";
+    public static final String CAPABILITY_FLOW_CONTROL = "flow-control";
+    public static final String CAPABILITY_LANES = "lanes";
+    public static final String CAPABILITY_RAW_BODY = "raw-body";
+    public static final String CAPABILITY_MULTI_VALUE_HEADERS = "multi-value-headers";
+    public static final int FILE_SYNC_BLOCK_SIZE_IN_BYTE = 2048;
+    public static final int FILE_SYNC_MAX_FILE_SIZE_IN_BYTE = 32 * 1024 * 1024;
     public static final int MAX_REQUEST_TIME_OUT_MS = 10 * 60 * 1000;
     public static final int HEART_BEAT_RESPONSE_CODE = 222;
+    public static final int HEART_BEAT_MIN_TIME_OUT_MS = 500;
+    public static final int HEART_BEAT_MAX_MISSED = 3;
     public static final String LOG_ERROR_PREFIX = "DebugLib: exception ";
     public static final String SPRING_PROFILE_NAME = "RemoteDebug";
 }
@@ -1,16 +1,31 @@
 package io.github.tontu89.debugserverlib.utils;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
 import io.github.tontu89.debugserverlib.model.MessageRequest;
+import io.github.tontu89.debugserverlib.model.MessageResponse;
 import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.transport.BinaryFrameCodec;
+import io.github.tontu89.debugserverlib.transport.BufferPool;
+import io.github.tontu89.debugserverlib.transport.ChunkedBody;
+import io.github.tontu89.debugserverlib.transport.CoalescingSender;
+import io.github.tontu89.debugserverlib.transport.FrameCompression;
+import io.github.tontu89.debugserverlib.transport.MessageCodec;
+import io.github.tontu89.debugserverlib.transport.MessageCodecs;
+import io.github.tontu89.debugserverlib.transport.StreamAssembler;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.function.Consumer;
 
 @Slf4j
 public class DebugUtils {
@@ -52,36 +67,199 @@ public class DebugUtils {
 //    }
 
     public static void writeMessage(DataOutputStream dos, ServerClientMessage message) throws IOException {
-        byte[] messageInByte = Constants.OBJECT_MAPPER.writeValueAsBytes(message);
+        writeMessage(dos, message, WireFormat.JSON);
+    }
 
-        dos.writeInt(messageInByte.length);
+    public static void writeMessage(DataOutputStream dos, ServerClientMessage message, WireFormat wireFormat) throws IOException {
+        writeMessage(dos, message, wireFormat, FrameCompression.NO_COMPRESSION);
+    }
 
-        for (int i = 0; i < messageInByte.length; i = i + Constants.MESSAGE_CHUNK_SIZE_IN_BYTE) {
-            dos.write(messageInByte, i, (i + Constants.MESSAGE_CHUNK_SIZE_IN_BYTE) > messageInByte.length ? (messageInByte.length - i) : Constants.MESSAGE_CHUNK_SIZE_IN_BYTE);
-        }
+    /**
+     * @param compressionThreshold smallest payload to compress, binary frames only, see {@link FrameCompression}
+     */
+    public static void writeMessage(DataOutputStream dos, ServerClientMessage message, WireFormat wireFormat, int compressionThreshold) throws IOException {
+        // dos is expected to be buffered: the whole frame goes down in one write and one flush
+        writeFrame(dos, message, wireFormat, compressionThreshold);
         dos.flush();
+    }
+
+    /**
+     * Same as {@link #writeMessage(DataOutputStream, ServerClientMessage, WireFormat, int)} without the flush, so
+     * several frames can leave in one packet, see {@link CoalescingSender}
+     */
+    public static void writeFrame(DataOutputStream dos, ServerClientMessage message, WireFormat wireFormat, int compressionThreshold) throws IOException {
+        if (wireFormat == WireFormat.BINARY) {
+            BinaryFrameCodec.write(dos, message, compressionThreshold);
+        } else {
+            byte[] messageInByte = Constants.OBJECT_MAPPER.writeValueAsBytes(message);
+            dos.writeInt(messageInByte.length);
+            dos.write(messageInByte);
+        }
 
-        if (message.getRequest() != null && message.getRequest().getCommand() == MessageRequest.Command.HEART_BEAT) {
+        logSentMessage(message);
+    }
 
-        } else if (message.getRequest() != null || (message.getResponse() != null && !(message.getResponse().getStatus() == 200 && message.getResponse().getDataBase64() == null))) {
-            log.debug("DebugLib: Send message for ID: {}, type: {}, command: {}", message.getId(), message.getType(), message.getRequest() == null ? null : message.getRequest().getCommand());
+    /**
+     * Non blocking counterpart of {@link #writeMessage(DataOutputStream, ServerClientMessage, WireFormat, int)}
+     *
+     * @param compressionThreshold smallest payload to compress, binary frames only, see {@link FrameCompression}
+     * @return buffers holding the whole frame, ready for a gathering channel write
+     */
+    public static ByteBuffer[] encodeMessage(ServerClientMessage message, WireFormat wireFormat, int compressionThreshold) throws IOException {
+        ByteBuffer[] frame;
+
+        if (wireFormat == WireFormat.BINARY) {
+            frame = BinaryFrameCodec.encode(message, compressionThreshold);
+        } else {
+            byte[] messageInByte = Constants.OBJECT_MAPPER.writeValueAsBytes(message);
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(messageInByte.length);
+            header.flip();
+            frame = new ByteBuffer[]{header, ByteBuffer.wrap(messageInByte)};
         }
+
+        logSentMessage(message);
+        return frame;
     }
 
-    public static ServerClientMessage readMessage(DataInputStream dis) throws IOException {
-        byte[] data = new byte[dis.readInt()];
+    /**
+     * Sends a message whose request or response carries a {@code dataStream}. A binary peer gets a body longer than
+     * {@link Constants#STREAM_THRESHOLD_IN_BYTE} in chunk frames, otherwise the body is read into {@code data}. A
+     * {@code data} that long goes to a binary peer in chunk frames as well.
+     */
+    public static void sendMessage(ServerClientMessage message, WireFormat wireFormat, Consumer<ServerClientMessage> sink) throws IOException {
+        sendMessage(message, wireFormat, null, sink);
+    }
+
+    /**
+     * @param streams stream state of the connection, streamed bodies wait for the receiver credit once flow control is on
+     */
+    public static void sendMessage(ServerClientMessage message, WireFormat wireFormat, StreamAssembler streams, Consumer<ServerClientMessage> sink) throws IOException {
+        MessageRequest request = message.getRequest();
+        MessageResponse response = message.getResponse();
+        InputStream dataStream = request != null ? request.getDataStream() : response != null ? response.getDataStream() : null;
+        byte[] bytes = request != null ? request.getData() : response != null ? response.getData() : null;
 
-        for (int i = 0, j = 0, chunkSize = Constants.MESSAGE_CHUNK_SIZE_IN_BYTE; i < data.length; i = i + j) {
-            if (i + chunkSize > data.length) {
-                chunkSize = data.length - i;
+        if (dataStream == null && wireFormat == WireFormat.BINARY && message.getFlags() == 0 && bytes != null && bytes.length > Constants.STREAM_THRESHOLD_IN_BYTE) {
+            // one big frame would hold the socket until it is written, chunks let other frames pass in between
+            dataStream = new ByteArrayInputStream(bytes);
+
+            if (request != null) {
+                request.setData(null);
+                request.setDataStream(dataStream);
+            } else {
+                response.setData(null);
+                response.setDataStream(dataStream);
             }
-            j = dis.read(data, i, chunkSize);
         }
 
-        ServerClientMessage message = Constants.OBJECT_MAPPER.readValue(data, ServerClientMessage.class);
+        if (dataStream == null) {
+            sink.accept(message);
+            return;
+        }
+
+        ChunkedBody body;
+        byte[] data;
+
+        try {
+            body = ChunkedBody.read(dataStream, Constants.STREAM_THRESHOLD_IN_BYTE);
+
+            if (wireFormat == WireFormat.BINARY && !body.isComplete()) {
+                body.send(message, sink, streams);
+                return;
+            }
+            data = body.readAll();
+        } catch (IOException e) {
+            if (message.getFlags() != 0) {
+                // head already sent, the receiver got an abort chunk
+                throw e;
+            }
+            log.error(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
+            data = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+
+            if (response != null) {
+                response.setStatus(500);
+            }
+        }
+
+        if (request != null) {
+            request.setData(data);
+        } else {
+            response.setData(data);
+        }
+        sink.accept(message);
+    }
+
+    /**
+     * Sends {@code responseInfo} as the data of {@code head}. A large {@code payloadStream} goes to a binary peer in
+     * chunk frames after a head without payload, otherwise it is read into {@code payload} like before.
+     */
+    public static void sendHttpResponseInfo(ServerClientMessage head, HttpResponseInfo responseInfo, WireFormat wireFormat, MessageCodec codec, Consumer<ServerClientMessage> sink) throws IOException {
+        sendHttpResponseInfo(head, responseInfo, wireFormat, codec, null, sink);
+    }
+
+    public static void sendHttpResponseInfo(ServerClientMessage head, HttpResponseInfo responseInfo, WireFormat wireFormat, MessageCodec codec, StreamAssembler streams, Consumer<ServerClientMessage> sink) throws IOException {
+        InputStream payloadStream = responseInfo.getPayloadStream();
+
+        if (payloadStream != null) {
+            try {
+                ChunkedBody body = ChunkedBody.read(payloadStream, Constants.STREAM_THRESHOLD_IN_BYTE);
+
+                if (wireFormat == WireFormat.BINARY && !body.isComplete()) {
+                    head.getResponse().setData(objectToBytes(responseInfo, codec));
+                    body.send(head, sink, streams);
+                    return;
+                }
+
+                byte[] data = body.readAll();
+                responseInfo.setBody(data.length > 0 ? data : null);
+            } catch (IOException e) {
+                if (head.getFlags() != 0) {
+                    // head already sent, the receiver got an abort chunk
+                    throw e;
+                }
+                log.error(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
+                responseInfo = HttpResponseInfo.builder()
+                        .httpStatus(500)
+                        .body(e.getMessage() == null ? null : e.getMessage().getBytes(StandardCharsets.UTF_8))
+                        .build();
+            }
+        }
+
+        head.getResponse().setData(objectToBytes(responseInfo, codec));
+        sink.accept(head);
+    }
+
+    public static ServerClientMessage readMessage(DataInputStream dis) throws IOException {
+        int header = dis.readInt();
+        int length = checkFrameLength(BinaryFrameCodec.isBinaryFrame(header) ? dis.readInt() : header);
+
+        byte[] data = BufferPool.DEFAULT.acquire(length);
+
+        try {
+            dis.readFully(data, 0, length);
+            return decodeMessage(header, data, 0, length);
+        } finally {
+            BufferPool.DEFAULT.release(data);
+        }
+    }
+
+    /**
+     * @param header first int of the frame: JSON length prefix or binary frame magic
+     * @param data   buffer holding the frame content after the length prefix
+     */
+    public static ServerClientMessage decodeMessage(int header, byte[] data, int offset, int length) throws IOException {
+        ServerClientMessage message;
+
+        if (BinaryFrameCodec.isBinaryFrame(header)) {
+            message = BinaryFrameCodec.decode(header, data, offset, length);
+        } else {
+            message = Constants.OBJECT_MAPPER.readValue(data, offset, length, ServerClientMessage.class);
+            message.setWireFormat(WireFormat.JSON);
+        }
 
         if ((message.getRequest() != null && message.getRequest().getCommand() == MessageRequest.Command.HEART_BEAT) ||
-                (message.getResponse() != null && message.getResponse().getStatus() == Constants.HEART_BEAT_RESPONSE_CODE)) {
+                (message.getResponse() != null && message.getResponse().getStatus() == Constants.HEART_BEAT_RESPONSE_CODE) ||
+                (message.getFlags() & BinaryFrameCodec.FLAG_STREAM_CHUNK) != 0) {
 
         } else {
             log.debug("DebugLib: Received message for ID: {}, type: {}, command: {}", message.getId(), message.getType(), message.getRequest() == null ? null : message.getRequest().getCommand());
@@ -90,6 +268,16 @@ public class DebugUtils {
         return message;
     }
 
+    /**
+     * Rejects a frame length the peer cannot have meant, before anything is allocated for it
+     */
+    public static int checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > Constants.MAX_FRAME_SIZE_IN_BYTE) {
+            throw new IOException("Invalid frame length " + length + ", at most " + Constants.MAX_FRAME_SIZE_IN_BYTE + " bytes are accepted");
+        }
+        return length;
+    }
+
     public static String objectToBase64String(Object obj) throws IOException {
         if (obj == null) {
             return null;
@@ -111,4 +299,53 @@ public class DebugUtils {
         }
         return null;
     }
+
+    public static byte[] objectToBytes(Object obj) throws IOException {
+        return objectToBytes(obj, MessageCodecs.JSON);
+    }
+
+    /**
+     * @param codec codec agreed with the peer at HELLO, {@link MessageCodecs#JSON} before that or for older peers
+     */
+    public static byte[] objectToBytes(Object obj, MessageCodec codec) throws IOException {
+        if (obj == null) {
+            return null;
+        } else {
+            return codec.encode(obj);
+        }
+    }
+
+    /**
+     * Decodes with whatever codec the sender used, see {@link MessageCodecs#detect(byte[])}
+     */
+    public static <T> T bytesToObject(byte[] data, Class<T> clazz) throws IOException {
+        if (data != null && data.length > 0) {
+            return MessageCodecs.detect(data).decode(data, clazz);
+        }
+        return null;
+    }
+
+    public static <T> T bytesToObject(byte[] data, TypeReference<T> clazz) throws IOException {
+        if (data != null && data.length > 0) {
+            return MessageCodecs.detect(data).decode(data, clazz);
+        }
+        return null;
+    }
+
+    public static String bytesToBase64String(byte[] data) {
+        return data == null ? null : Base64.getEncoder().encodeToString(data);
+    }
+
+    public static byte[] base64StringToBytes(String base64) {
+        return StringUtils.isBlank(base64) ? null : Base64.getDecoder().decode(base64);
+    }
+
+    private static void logSentMessage(ServerClientMessage message) {
+        if ((message.getRequest() != null && message.getRequest().getCommand() == MessageRequest.Command.HEART_BEAT) ||
+                (message.getFlags() & BinaryFrameCodec.FLAG_STREAM_CHUNK) != 0) {
+
+        } else if (message.getRequest() != null || (message.getResponse() != null && !(message.getResponse().getStatus() == 200 && message.getResponse().getData() == null))) {
+            log.debug("DebugLib: Send message for ID: {}, type: {}, command: {}", message.getId(), message.getType(), message.getRequest() == null ? null : message.getRequest().getCommand());
+        }
+    }
 }
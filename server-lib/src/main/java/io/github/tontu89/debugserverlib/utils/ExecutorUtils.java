@@ -0,0 +1,107 @@
+package io.github.tontu89.debugserverlib.utils;
+
+import io.github.tontu89.debugserverlib.transport.ExecutionMode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executors for an {@link ExecutionMode}. The project still builds for Java 11, so virtual threads are looked up by
+ * reflection once and only used when the running JDK has them.
+ */
+@Slf4j
+public class ExecutorUtils {
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+    private static final AtomicBoolean FALLBACK_LOGGED = new AtomicBoolean();
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTaskExecutor = null;
+
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class, long.class);
+            builderFactory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+            // preview releases have the methods but refuse to run them
+            builderFactory.invoke(ofVirtual.invoke(null));
+        } catch (Throwable e) {
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return {@code mode}, or PLATFORM if it is VIRTUAL and the JDK has no virtual threads
+     */
+    public static ExecutionMode effective(ExecutionMode mode) {
+        if (mode == ExecutionMode.VIRTUAL && !isVirtualThreadSupported()) {
+            if (FALLBACK_LOGGED.compareAndSet(false, true)) {
+                log.warn("DebugLib: Virtual threads need Java 21 or later, running on {}, falling back to thread pools", System.getProperty("java.version"));
+            }
+            return ExecutionMode.PLATFORM;
+        }
+        return mode == null ? ExecutionMode.PLATFORM : mode;
+    }
+
+    /**
+     * Runs every task right away, in place of {@link Executors#newCachedThreadPool()}
+     *
+     * @param name prefix of the thread names, in both modes
+     */
+    public static ExecutorService newCachedExecutor(ExecutionMode mode, String name) {
+        return effective(mode) == ExecutionMode.VIRTUAL ? newVirtualThreadPerTaskExecutor(name) : Executors.newCachedThreadPool(newThreadFactory(name));
+    }
+
+    /**
+     * In place of {@link Executors#newFixedThreadPool(int)}. Virtual threads run every task right away, {@code threads}
+     * only bounds the pool of the PLATFORM mode.
+     */
+    public static ExecutorService newFixedExecutor(ExecutionMode mode, String name, int threads) {
+        return effective(mode) == ExecutionMode.VIRTUAL ? newVirtualThreadPerTaskExecutor(name) : Executors.newFixedThreadPool(Math.max(1, threads), newThreadFactory(name));
+    }
+
+    /**
+     * Platform threads named {@code name-0}, {@code name-1}... like the virtual ones, so thread dumps show which loop
+     * a thread runs either way
+     */
+    public static ThreadFactory newThreadFactory(String name) {
+        ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        AtomicLong counter = new AtomicLong();
+
+        return task -> {
+            Thread thread = defaultFactory.newThread(task);
+            thread.setName(name + "-" + counter.getAndIncrement());
+            return thread;
+        };
+    }
+
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, BUILDER_FACTORY.invoke(builder));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create virtual threads", e);
+        }
+    }
+}
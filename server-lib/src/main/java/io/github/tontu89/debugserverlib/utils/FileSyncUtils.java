@@ -0,0 +1,166 @@
+package io.github.tontu89.debugserverlib.utils;
+
+import io.github.tontu89.debugserverlib.model.FileSyncRequest;
+import io.github.tontu89.debugserverlib.model.FileSyncResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * rsync style delta of a file against block checksums of an older copy. Blocks are matched at any offset through a
+ * rolling weak checksum, confirmed by MD5, and everything between matches goes as literal data.
+ */
+public class FileSyncUtils {
+
+    public static String sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return DigestUtils.sha256Hex(in);
+        }
+    }
+
+    /**
+     * @return checksums of the full blocks of the file, a trailing partial block is left out and comes back as literal
+     */
+    public static List<FileSyncRequest.BlockChecksum> blockChecksums(Path file, int blockSize) throws IOException {
+        List<FileSyncRequest.BlockChecksum> blocks = new ArrayList<>();
+        byte[] block = new byte[blockSize];
+
+        try (InputStream in = Files.newInputStream(file)) {
+            while (in.readNBytes(block, 0, blockSize) == blockSize) {
+                blocks.add(new FileSyncRequest.BlockChecksum(weakChecksum(block, 0, blockSize), DigestUtils.md5(block)));
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Adler-32 like checksum of rsync, {@link RollingChecksum} slides it one byte at a time
+     */
+    public static int weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+
+        for (int i = 0; i < length; i++) {
+            a += data[offset + i] & 0xFF;
+            b += (length - i) * (data[offset + i] & 0xFF);
+        }
+        return ((b & 0xFFFF) << 16) | (a & 0xFFFF);
+    }
+
+    public static FileSyncResponse diff(byte[] file, FileSyncRequest request) {
+        String sha256 = DigestUtils.sha256Hex(file);
+        FileSyncResponse.FileSyncResponseBuilder response = FileSyncResponse.builder()
+                .length(file.length)
+                .sha256(sha256);
+
+        if (sha256.equals(request.getSha256())) {
+            return response.unchanged(true).build();
+        }
+
+        int blockSize = request.getBlockSize();
+        Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+        List<FileSyncRequest.BlockChecksum> blocks = request.getBlocks() == null ? List.of() : request.getBlocks();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            blocksByWeak.computeIfAbsent(blocks.get(i).getWeak(), k -> new ArrayList<>()).add(i);
+        }
+
+        List<FileSyncResponse.Segment> segments = new ArrayList<>();
+        int literalStart = 0;
+        int position = 0;
+        RollingChecksum checksum = blockSize > 0 && !blocksByWeak.isEmpty() && file.length >= blockSize ? new RollingChecksum(file, blockSize) : null;
+
+        while (checksum != null && position + blockSize <= file.length) {
+            int match = findBlock(file, position, blockSize, blocksByWeak.get(checksum.value()), blocks);
+
+            if (match < 0) {
+                if (position + blockSize < file.length) {
+                    checksum.roll(position);
+                }
+                position++;
+                continue;
+            }
+
+            if (literalStart < position) {
+                segments.add(FileSyncResponse.Segment.literal(Arrays.copyOfRange(file, literalStart, position)));
+            }
+
+            FileSyncResponse.Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (last != null && last.getData() == null && last.getBlockIndex() + last.getBlockCount() == match) {
+                last.setBlockCount(last.getBlockCount() + 1);
+            } else {
+                segments.add(FileSyncResponse.Segment.blocks(match, 1));
+            }
+
+            position += blockSize;
+            literalStart = position;
+
+            if (position + blockSize <= file.length) {
+                checksum.reset(position);
+            }
+        }
+
+        if (literalStart < file.length) {
+            segments.add(FileSyncResponse.Segment.literal(Arrays.copyOfRange(file, literalStart, file.length)));
+        }
+
+        return response.segments(segments).build();
+    }
+
+    private static int findBlock(byte[] file, int position, int blockSize, List<Integer> candidates, List<FileSyncRequest.BlockChecksum> blocks) {
+        if (candidates == null) {
+            return -1;
+        }
+
+        byte[] strong = DigestUtils.md5(Arrays.copyOfRange(file, position, position + blockSize));
+
+        for (Integer candidate : candidates) {
+            if (Arrays.equals(strong, blocks.get(candidate).getStrong())) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private static class RollingChecksum {
+        private final byte[] data;
+        private final int blockSize;
+        private int a;
+        private int b;
+
+        private RollingChecksum(byte[] data, int blockSize) {
+            this.data = data;
+            this.blockSize = blockSize;
+            this.reset(0);
+        }
+
+        private void reset(int position) {
+            int value = weakChecksum(this.data, position, this.blockSize);
+            this.a = value & 0xFFFF;
+            this.b = value >>> 16;
+        }
+
+        /**
+         * Moves the window starting at {@code position} one byte forward
+         */
+        private void roll(int position) {
+            int out = this.data[position] & 0xFF;
+            int in = this.data[position + this.blockSize] & 0xFF;
+
+            this.a = (this.a - out + in) & 0xFFFF;
+            this.b = (this.b - this.blockSize * out + this.a) & 0xFFFF;
+        }
+
+        private int value() {
+            return (this.b << 16) | this.a;
+        }
+    }
+}
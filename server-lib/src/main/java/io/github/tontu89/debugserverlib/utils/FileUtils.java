@@ -1,14 +1,25 @@
 package io.github.tontu89.debugserverlib.utils;
 
+import io.github.tontu89.debugserverlib.model.FileSyncRequest;
+import io.github.tontu89.debugserverlib.model.FileSyncResponse;
 import io.github.tontu89.debugserverlib.model.MessageResponse;
+import io.github.tontu89.debugserverlib.transport.MessageCodec;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.http.HttpStatus;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.Base64;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 
 
 
@@ -29,6 +40,15 @@ import java.util.Base64;
 public class FileUtils {
 
     public static MessageResponse downloadFile(String filePath) {
+        return downloadFile(filePath, 0, null);
+    }
+
+    /**
+     * @param offset       bytes the caller already has
+     * @param offsetSha256 SHA-256 of these bytes. The rest of the file is only sent, with status 206, if the file still
+     *                     starts with them, otherwise the whole file is sent with status 200
+     */
+    public static MessageResponse downloadFile(String filePath, long offset, String offsetSha256) {
         MessageResponse.MessageResponseBuilder builder = MessageResponse.builder();
 
         if (StringUtils.isBlank(filePath)) {
@@ -38,22 +58,82 @@ public class FileUtils {
 
             if (!file.exists()) {
                 builder.status(HttpStatus.NO_CONTENT.value())
-                        .dataBase64(Base64.getEncoder().encodeToString((filePath + " does not exist").getBytes(StandardCharsets.UTF_8)));
+                        .data((filePath + " does not exist").getBytes(StandardCharsets.UTF_8));
             } else if (!file.isFile()) {
                 builder.status(HttpStatus.NO_CONTENT.value())
-                        .dataBase64(Base64.getEncoder().encodeToString((filePath + " not a file").getBytes(StandardCharsets.UTF_8)));
+                        .data((filePath + " not a file").getBytes(StandardCharsets.UTF_8));
             } else {
                 try {
-                    builder.dataBase64(Base64.getEncoder().encodeToString(Files.readAllBytes(file.toPath())))
-                            .status(HttpStatus.OK.value());
+                    // read while sending, large files are streamed to binary peers chunk by chunk
+                    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    boolean resume;
+
+                    try {
+                        resume = offset > 0 && offset < channel.size() && offsetSha256 != null
+                                && offsetSha256.equals(sha256(file.toPath(), offset));
+                        channel.position(resume ? offset : 0);
+                    } catch (Exception e) {
+                        channel.close();
+                        throw e;
+                    }
+
+                    builder.dataStream(Channels.newInputStream(channel))
+                            .status(resume ? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
                 } catch (Exception e) {
                     log.debug(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
                     builder.status(HttpStatus.INTERNAL_SERVER_ERROR.value())
-                            .dataBase64(Base64.getEncoder().encodeToString(e.getMessage().getBytes(StandardCharsets.UTF_8)));
+                            .data(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
                 }
             }
         }
 
         return builder.build();
     }
+
+    /**
+     * @return a {@link FileSyncResponse} with what the agent misses, 413 for files too large to diff in memory
+     */
+    public static MessageResponse syncFile(FileSyncRequest request, MessageCodec codec) {
+        MessageResponse.MessageResponseBuilder builder = MessageResponse.builder();
+        File file = StringUtils.isBlank(request.getFilePath()) ? null : new File(request.getFilePath());
+
+        try {
+            if (file == null || !file.isFile()) {
+                builder.status(HttpStatus.NOT_FOUND.value())
+                        .data((request.getFilePath() + " not a file").getBytes(StandardCharsets.UTF_8));
+            } else if (file.length() > Constants.FILE_SYNC_MAX_FILE_SIZE_IN_BYTE) {
+                builder.status(HttpStatus.PAYLOAD_TOO_LARGE.value());
+            } else {
+                FileSyncResponse response = FileSyncUtils.diff(Files.readAllBytes(file.toPath()), request);
+                builder.status(HttpStatus.OK.value())
+                        .data(DebugUtils.objectToBytes(response, codec));
+            }
+        } catch (Exception e) {
+            log.debug(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
+            builder.status(HttpStatus.INTERNAL_SERVER_ERROR.value())
+                    .data(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return SHA-256 in hex of the first {@code length} bytes of the file
+     */
+    public static String sha256(Path file, long length) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        byte[] buffer = new byte[Constants.SOCKET_BUFFER_SIZE_IN_BYTE];
+
+        try (InputStream in = Files.newInputStream(file)) {
+            long remaining = length;
+            int read;
+
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
 }
@@ -4,6 +4,7 @@ import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.utils.HttpClientUtils;
 import io.github.tontu89.debugserverlib.model.HttpResponseInfo;
+import io.github.tontu89.debugserverlib.model.MultiValueHeaders;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Dispatcher;
@@ -17,6 +18,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RequestCallback;
@@ -38,6 +40,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
@@ -48,6 +51,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
@@ -94,8 +98,64 @@ public class HttpUtils {
         return body;
     }
 
-    public static HttpResponseInfo executeHttpRequestByRest(String host, String uri, String httpMethod, Map<String, String> headers, String payload) {
+    /**
+     * Text of a body in the charset its content type names, UTF-8 if it names none
+     */
+    public static String bodyToText(byte[] body, MultiValueHeaders headers) {
+        if (body == null) {
+            return null;
+        }
+
+        Charset charset = StandardCharsets.UTF_8;
+        String contentType = headers == null ? null : headers.getFirst("content-type");
+
+        if (contentType != null) {
+            try {
+                charset = Optional.ofNullable(MediaType.parseMediaType(contentType).getCharset()).orElse(charset);
+            } catch (Throwable e) {
+                log.debug("DebugLib: Cannot read charset of content type {}", contentType);
+            }
+        }
+
+        return new String(body, charset);
+    }
+
+    /**
+     * Receives the response of {@link #streamHttpRequestByRest}, {@link HttpResponseInfo#getPayloadStream()} is only
+     * readable inside {@link #accept(HttpResponseInfo)}.
+     */
+    @FunctionalInterface
+    public interface HttpResponseConsumer {
+        void accept(HttpResponseInfo responseInfo) throws IOException;
+    }
+
+    public static HttpResponseInfo executeHttpRequestByRest(String host, String uri, String httpMethod, MultiValueHeaders headers, byte[] body) {
+        AtomicReference<HttpResponseInfo> result = new AtomicReference<>();
+
+        streamHttpRequestByRest(host, uri, httpMethod, headers, body, responseInfo -> {
+            if (responseInfo.getPayloadStream() != null) {
+                byte[] data = responseInfo.getPayloadStream().readAllBytes();
+                responseInfo.setBody(data.length > 0 ? data : null);
+                responseInfo.setPayloadStream(null);
+            }
+            result.set(responseInfo);
+        });
+
+        if (log.isDebugEnabled()) {
+            log.debug("DebugLib: Request URI [{}] | method [{}] | headers [{}] | payload [{}] | with status [{}] and result [{}]", host + uri, httpMethod, headers, bodyToText(body, headers), result.get().getHttpStatus(), result.get());
+        }
+
+        return result.get();
+    }
+
+    /**
+     * Same as {@link #executeHttpRequestByRest}, but hands the live response body to the consumer instead of reading
+     * it into memory. The consumer is called exactly once, error responses come with a payload and no stream.
+     */
+    public static void streamHttpRequestByRest(String host, String uri, String httpMethod, MultiValueHeaders headers, byte[] body, HttpResponseConsumer responseConsumer) {
+        AtomicBoolean consumed = new AtomicBoolean(false);
         HttpResponseInfo responseInfo = null;
+
         try {
             host = host.endsWith("/") ? (host.substring(0, host.length() - 1)) : host;
             uri = StringUtils.isBlank(uri) ? "" : (uri.startsWith("/") ? uri : ("/" + uri));
@@ -103,65 +163,67 @@ public class HttpUtils {
 
             RestTemplate restTemplate = prepareRestTemplate(new RestTemplateBuilder());
 
-            responseInfo = restTemplate.execute(url.toString(), HttpMethod.resolve(httpMethod), (RequestCallback) request -> {
+            restTemplate.execute(url.toString(), HttpMethod.resolve(httpMethod), (RequestCallback) request -> {
                 AtomicBoolean needToResetContentLength = new AtomicBoolean(false);
 
-                headers.forEach((k, v) -> {
-                    if (!"content-length".equalsIgnoreCase(k)) {
+                Optional.ofNullable(headers).ifPresent(h -> h.forEach((k, v) -> {
+                    if (!"content-length".equals(k)) {
                         request.getHeaders().add(k, v);
                     } else {
                         needToResetContentLength.set(true);
                     }
-                });
-
-                if (payload != null && payload.length() > 0) {
-                    byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+                }));
 
+                if (body != null && body.length > 0) {
                     if (needToResetContentLength.get()) {
-                        request.getHeaders().add("content-length", data.length + "");
+                        request.getHeaders().add("content-length", body.length + "");
                     }
 
                     OutputStream outputStream = request.getBody();
-                    outputStream.write(payload.getBytes(StandardCharsets.UTF_8));
+                    outputStream.write(body);
                     outputStream.flush();
                 }
-            }, (ResponseExtractor<HttpResponseInfo>) response -> {
-                String returnedPayload = null;
-                if (response.getBody() != null) {
-                    byte[] data = response.getBody().readAllBytes();
-                    if (data != null && data.length > 0) {
-                        returnedPayload = new String(data);
-                    }
-                }
+            }, (ResponseExtractor<Void>) response -> {
                 HttpResponseInfo restResponse = HttpResponseInfo.builder()
                         .httpStatus(response.getRawStatusCode())
-                        .headers(fromHttpHeadersToMap(response.getHeaders()))
-                        .payload(returnedPayload)
+                        .headers(fromHttpHeaders(response.getHeaders()))
+                        .payloadStream(response.getBody())
                         .build();
                 restResponse.removeEncodingHeader();
-                return restResponse;
+
+                consumed.set(true);
+                responseConsumer.accept(restResponse);
+                return null;
             });
+            return;
         } catch (HttpClientErrorException e) {
             responseInfo = HttpResponseInfo.builder()
                     .httpStatus(e.getRawStatusCode())
-                    .payload(e.getResponseBodyAsString())
+                    .body(e.getResponseBodyAsByteArray())
                     .build();
         } catch (Throwable e) {
             log.info(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
 
             responseInfo = HttpResponseInfo.builder()
                     .httpStatus(500)
-                    .payload(e.getMessage())
+                    .body(e.getMessage() == null ? null : e.getMessage().getBytes(StandardCharsets.UTF_8))
                     .build();
         }
 
-        log.debug("DebugLib: Request URI [{}] | method [{}] | headers [{}] | payload [{}] | with status [{}] and result [{}]", host + uri, httpMethod, headers, payload, responseInfo.getHttpStatus(), responseInfo);
+        if (consumed.get()) {
+            // the failure happened while the consumer was reading the body, it already has its response
+            return;
+        }
 
-        return responseInfo;
+        try {
+            responseConsumer.accept(responseInfo);
+        } catch (Throwable e) {
+            log.error(Constants.LOG_ERROR_PREFIX + e.getMessage(), e);
+        }
     }
 
     @SneakyThrows
-    public static HttpResponseInfo executeHttpRequest(String host, String uri, String httpMethod, Map<String, String> headers, String payload) {
+    public static HttpResponseInfo executeHttpRequest(String host, String uri, String httpMethod, MultiValueHeaders headers, byte[] body) {
         HttpResponseInfo responseInfo = null;
         try {
             host = host.endsWith("/") ? (host.substring(0, host.length() - 1)) : host;
@@ -172,21 +234,21 @@ public class HttpUtils {
 
             RequestBody requestBody = null;
 
-            if (payload != null && payload.length() > 0) {
-                requestBody = RequestBody.create(null, payload.getBytes(StandardCharsets.UTF_8));
+            if (body != null && body.length > 0) {
+                requestBody = RequestBody.create(null, body);
             }
 
             Request request = new Request.Builder()
                     .method(httpMethod, requestBody)
                     .url(url)
-                    .headers(fromMapToHeaders(headers))
+                    .headers(toOkHttpHeaders(headers))
                     .build();
 
             try (Response response = client.newCall(request).execute()) {
                 responseInfo = HttpResponseInfo.builder()
                         .httpStatus(response.code())
-                        .headers(fromHeadersToMap(request.headers()))
-                        .payload(response.body().string())
+                        .headers(fromOkHttpHeaders(response.headers()))
+                        .body(response.body().bytes())
                         .build();
                 return responseInfo;
             }
@@ -199,7 +261,9 @@ public class HttpUtils {
                     .build();
         }
 
-        log.debug("DebugLib: Request URI [{}] | method [{}] | headers [{}] | payload [{}] | with status [{}] and result [{}]", host + uri, httpMethod, headers, payload, responseInfo.getHttpStatus(), responseInfo);
+        if (log.isDebugEnabled()) {
+            log.debug("DebugLib: Request URI [{}] | method [{}] | headers [{}] | payload [{}] | with status [{}] and result [{}]", host + uri, httpMethod, headers, bodyToText(body, headers), responseInfo.getHttpStatus(), responseInfo);
+        }
 
         return responseInfo;
     }
@@ -239,10 +303,10 @@ public class HttpUtils {
         return null;
     }
 
-    private static Map<String, String> fromHeadersToMap(Headers headers) {
-        Map<String, String> result = new HashMap<>();
-        for (String name : headers.names()) {
-            result.put(name, headers.get(name));
+    private static MultiValueHeaders fromOkHttpHeaders(Headers headers) {
+        MultiValueHeaders result = new MultiValueHeaders(headers.size());
+        for (int i = 0; i < headers.size(); ++i) {
+            result.add(headers.name(i), headers.value(i));
         }
         return result;
     }
@@ -265,14 +329,14 @@ public class HttpUtils {
         return httpClientNew;
     }
 
-    private static Headers fromMapToHeaders(Map<String, String> headers) {
+    private static Headers toOkHttpHeaders(MultiValueHeaders headers) {
         Headers.Builder result = new Headers.Builder();
         if (headers != null) {
-            for (String name : headers.keySet()) {
-                if (!"content-length".equalsIgnoreCase(name)) {
-                    result.add(name, headers.get(name));
+            headers.forEach((name, value) -> {
+                if (!"content-length".equals(name)) {
+                    result.add(name, value);
                 }
-            }
+            });
         }
         return result.build();
     }
@@ -323,11 +387,11 @@ public class HttpUtils {
 
     }
 
-    private static Map<String, String> fromHttpHeadersToMap(HttpHeaders headers) {
-        Map<String, String> result = new HashMap<>();
+    private static MultiValueHeaders fromHttpHeaders(HttpHeaders headers) {
+        MultiValueHeaders result = new MultiValueHeaders();
         Optional.ofNullable(headers).ifPresent(httpHeaders -> httpHeaders.forEach((key, values) -> {
-            if (values != null && !values.isEmpty()) {
-                result.put(key, values.get(values.size() - 1));
+            if (values != null) {
+                values.forEach(value -> result.add(key, value));
             }
         }));
 
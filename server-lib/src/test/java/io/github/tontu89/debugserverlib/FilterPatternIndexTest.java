@@ -0,0 +1,233 @@
+package io.github.tontu89.debugserverlib;
+
+import io.github.tontu89.debugserverlib.config.RemoteDebugServerConfig;
+import io.github.tontu89.debugserverlib.model.FilterRequestMatchPattern;
+import io.github.tontu89.debugserverlib.model.HttpRequestInfo;
+import io.github.tontu89.debugserverlib.model.MessageRequest;
+import io.github.tontu89.debugserverlib.model.MultiValueHeaders;
+import io.github.tontu89.debugserverlib.model.RequestMatchContext;
+import io.github.tontu89.debugserverlib.model.ServerClientMessage;
+import io.github.tontu89.debugserverlib.transport.ClientConnection;
+import io.github.tontu89.debugserverlib.transport.ClientConnectionListener;
+import io.github.tontu89.debugserverlib.transport.WireFormat;
+import io.github.tontu89.debugserverlib.utils.DebugUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterPatternIndexTest {
+    private static final String[][] PATTERNS = {
+            {"$.uri", "/api/v1/customers/.*"},
+            {"$.uri", "/api/v1/customers/\\d+/loans"},
+            {"$.uri", "/api/v2?/orders.*"},
+            {"$.uri", "^/health"},
+            {"$.uri", ".*/loans.*"},
+            {"$.uri", "/api/v1/orders|/api/v2/orders"},
+            {"$.method", "POST"},
+            {"$.method", "PUT|DELETE"},
+            {"$.method", "G.T"},
+            {"$.headers.x-tenant", "acme"},
+            {"$.headers.X-Tenant", "acme|globex"},
+            {"$.headers.x-tenant", "glo.*"},
+            {"$.headers.x-debug", ".*"},
+            {"$.headers.accept", "application/json, text/plain"},
+            {"$.payload.user.id", "42"},
+            {"$.payload.user.id", "4\\d"},
+            {"$.payload.user.name", "bob|alice"},
+            {"$.payload", ".*\"sku\":\"A1\".*"},
+            {"$..x-tenant", ".*"},
+            {"$['headers']['x-debug']", "on"},
+    };
+
+    private static final String[] URIS = {
+            "/api/v1/customers/12345/loans", "/api/v1/customers/7", "/api/v1/orders", "/api/v2/orders/3", "/api/orders",
+            "/health", "/healthz", "/loans", "/", "/api/v1/customers"
+    };
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "GOT"};
+
+    private static final String[] BODIES = {
+            null,
+            "",
+            "not json",
+            "{\"user\":{\"id\":\"42\",\"name\":\"bob\"}}",
+            "{\"user\":{\"id\":\"47\",\"name\":\"alice\"},\"items\":[{\"sku\":\"A1\"}]}",
+            "{\"user\":{\"id\":42}}",
+            "[1,2,3]"
+    };
+
+    private final List<ClientHandler> clients = new ArrayList<>();
+
+    @AfterEach
+    void closeClients() {
+        this.clients.forEach(ClientHandler::close);
+    }
+
+    @Test
+    void findsTheSameClientAsMatchingEveryClientInTurn() throws IOException {
+        Random random = new Random(1);
+
+        for (int round = 0; round < 20; ++round) {
+            this.closeClients();
+            this.clients.clear();
+
+            for (int i = 0; i < 6; ++i) {
+                List<FilterRequestMatchPattern> patterns = new ArrayList<>();
+                for (int p = random.nextInt(4); p >= 0; --p) {
+                    String[] pattern = PATTERNS[random.nextInt(PATTERNS.length)];
+                    patterns.add(FilterRequestMatchPattern.builder().jsonPath(pattern[0]).matchPattern(pattern[1]).build());
+                }
+                // clients not started take no requests, whatever their filters say
+                this.clients.add(newClient(patterns, random.nextInt(5) > 0));
+            }
+
+            FilterPatternIndex index = FilterPatternIndex.build(this.clients);
+            String context = "round " + round + " against " + this.describeClients();
+
+            for (int r = 0; r < 200; ++r) {
+                HttpRequestInfo request = randomRequest(random);
+
+                Optional<ClientHandler> expected = this.clients.stream()
+                        .filter(client -> client.isMatch(new RequestMatchContext(request)))
+                        .findFirst();
+
+                assertEquals(expected, index.findMatchingClient(new RequestMatchContext(request)),
+                        () -> request + " in " + context);
+            }
+        }
+    }
+
+    @Test
+    void literalPrefixStopsAtTheFirstRegexConstruct() {
+        assertEquals("/api/v1/customers/", FilterPatternIndex.literalPrefix("/api/v1/customers/.*"));
+        assertEquals("/health", FilterPatternIndex.literalPrefix("^/health"));
+        // the last literal before a quantifier may be left out
+        assertEquals("/api/v", FilterPatternIndex.literalPrefix("/api/v2?/orders"));
+        assertEquals("", FilterPatternIndex.literalPrefix(".*/loans"));
+        assertEquals("", FilterPatternIndex.literalPrefix("/a|/b"));
+    }
+
+    @Test
+    void literalAlternativesOnlyForPlainText() {
+        assertEquals(List.of("PUT", "DELETE"), FilterPatternIndex.literalAlternatives("PUT|DELETE"));
+        assertEquals(List.of("acme"), FilterPatternIndex.literalAlternatives("acme"));
+        assertNull(FilterPatternIndex.literalAlternatives("G.T"));
+        assertNull(FilterPatternIndex.literalAlternatives("PUT|"));
+        assertNull(FilterPatternIndex.literalAlternatives("4\\d"));
+    }
+
+    @Test
+    void indexesEveryPatternOfEveryClient() throws IOException {
+        this.clients.add(newClient(List.of(
+                FilterRequestMatchPattern.builder().jsonPath("$.uri").matchPattern("/a.*").build(),
+                FilterRequestMatchPattern.builder().jsonPath("$.method").matchPattern("GET").build()), true));
+        this.clients.add(newClient(List.of(
+                FilterRequestMatchPattern.builder().jsonPath("$.headers.x-debug").matchPattern("on").build()), true));
+
+        FilterPatternIndex index = FilterPatternIndex.build(this.clients);
+
+        assertEquals(3, index.getPatternCount());
+        assertTrue(index.findMatchingClient(new RequestMatchContext(HttpRequestInfo.builder()
+                .uri("/b")
+                .method("POST")
+                .headers(new MultiValueHeaders().add("X-Debug", "on"))
+                .build())).filter(this.clients.get(1)::equals).isPresent());
+    }
+
+    private static HttpRequestInfo randomRequest(Random random) {
+        MultiValueHeaders headers = new MultiValueHeaders();
+        String[] tenants = {null, "acme", "globex", "initech"};
+        String tenant = tenants[random.nextInt(tenants.length)];
+
+        if (tenant != null) {
+            headers.add(random.nextBoolean() ? "X-Tenant" : "x-tenant", tenant);
+        }
+        if (random.nextInt(3) == 0) {
+            headers.add("X-Debug", random.nextBoolean() ? "on" : "");
+        }
+        if (random.nextBoolean()) {
+            headers.add("Accept", "application/json");
+            if (random.nextBoolean()) {
+                headers.add("Accept", "text/plain");
+            }
+        }
+
+        String body = BODIES[random.nextInt(BODIES.length)];
+
+        return HttpRequestInfo.builder()
+                .uri(URIS[random.nextInt(URIS.length)])
+                .method(METHODS[random.nextInt(METHODS.length)])
+                .headers(headers)
+                .body(body == null ? null : body.getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /**
+     * A client with its filters added the way an agent adds them
+     */
+    private static ClientHandler newClient(List<FilterRequestMatchPattern> patterns, boolean started) throws IOException {
+        Executor direct = Runnable::run;
+        ClientHandler client = new ClientHandler(new RemoteDebugServerConfig(), new DiscardingConnection(), direct, direct);
+
+        if (started) {
+            client.start();
+        }
+
+        client.onMessage(ServerClientMessage.builder()
+                .id("C-" + patterns.hashCode())
+                .type(ServerClientMessage.Type.REQUEST)
+                .wireFormat(WireFormat.JSON)
+                .request(MessageRequest.builder()
+                        .command(MessageRequest.Command.SERVER_ADD_FILTER_PATTERN)
+                        .data(DebugUtils.objectToBytes(patterns))
+                        .build())
+                .build());
+        return client;
+    }
+
+    private String describeClients() {
+        StringBuilder sb = new StringBuilder();
+        for (ClientHandler client : this.clients) {
+            sb.append(client.isTakingRequests() ? "\n  running " : "\n  stopped ").append(client.getMatchPatterns());
+        }
+        return sb.toString();
+    }
+
+    private static class DiscardingConnection implements ClientConnection {
+        @Override
+        public void start(ClientConnectionListener listener, Executor executor) {
+        }
+
+        @Override
+        public void send(ServerClientMessage message, WireFormat wireFormat) {
+        }
+
+        @Override
+        public void awaitWritable(long maxPendingBytes) {
+        }
+
+        @Override
+        public void setCompressionThreshold(int thresholdInByte) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
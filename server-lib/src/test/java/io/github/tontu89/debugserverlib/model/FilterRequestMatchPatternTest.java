@@ -0,0 +1,94 @@
+package io.github.tontu89.debugserverlib.model;
+
+import com.jayway.jsonpath.DocumentContext;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterRequestMatchPatternTest {
+    private static final HttpRequestInfo REQUEST = HttpRequestInfo.builder()
+            .uri("/api/v1/customers/12345/loans?page=1")
+            .method("POST")
+            .headers(new MultiValueHeaders()
+                    .add("Content-Type", "application/json")
+                    .add("X-Tenant", "acme")
+                    .add("Accept", "application/json")
+                    .add("Accept", "text/plain"))
+            .body("{\"user\":{\"id\":\"42\",\"name\":\"bob\"},\"items\":[{\"sku\":\"A1\"}]}".getBytes(StandardCharsets.UTF_8))
+            .build();
+
+    private static final HttpRequestInfo NO_BODY = HttpRequestInfo.builder()
+            .uri("/health")
+            .method("GET")
+            .headers(new MultiValueHeaders())
+            .build();
+
+    @Test
+    void compiledPathsMatchLikeJsonPath() {
+        assertSameAsJsonPath("$.uri", ".*/customers/\\d+/loans.*", FilterRequestMatchPattern.Target.URI);
+        assertSameAsJsonPath("$.uri", "/health", FilterRequestMatchPattern.Target.URI);
+        assertSameAsJsonPath("$.method", "POST", FilterRequestMatchPattern.Target.METHOD);
+        assertSameAsJsonPath("$['method']", "GET", FilterRequestMatchPattern.Target.METHOD);
+        assertSameAsJsonPath("$.headers.x-tenant", "acme", FilterRequestMatchPattern.Target.HEADER);
+        assertSameAsJsonPath("$['headers']['x-tenant']", "ac.*", FilterRequestMatchPattern.Target.HEADER);
+        assertSameAsJsonPath("$.headers.accept", "application/json, text/plain", FilterRequestMatchPattern.Target.HEADER);
+        assertSameAsJsonPath("$.headers.x-missing", ".*", FilterRequestMatchPattern.Target.HEADER);
+        assertSameAsJsonPath("$.payload", ".*\"id\":\"42\".*", FilterRequestMatchPattern.Target.PAYLOAD);
+        assertSameAsJsonPath("$.payload", ".*", FilterRequestMatchPattern.Target.PAYLOAD);
+    }
+
+    @Test
+    void otherPathsAreReadFromTheMatchDocument() {
+        assertSameAsJsonPath("$..x-tenant", ".*acme.*", FilterRequestMatchPattern.Target.DOCUMENT);
+        assertSameAsJsonPath("$.headers[*]", ".*", FilterRequestMatchPattern.Target.DOCUMENT);
+        assertSameAsJsonPath("$.*", ".*POST.*", FilterRequestMatchPattern.Target.DOCUMENT);
+    }
+
+    @Test
+    void headerNamesMatchInAnyCase() {
+        FilterRequestMatchPattern pattern = compile("$.headers.X-Tenant", "acme");
+
+        assertEquals(FilterRequestMatchPattern.Target.HEADER, pattern.getTarget());
+        assertTrue(matches(pattern, REQUEST));
+        // the match document has the names in lower case
+        assertFalse(pattern.isMatch(new RequestMatchContext(REQUEST).getRequestDocument()));
+    }
+
+    @Test
+    void pathsBelowThePayloadReadTheJsonBody() {
+        FilterRequestMatchPattern pattern = compile("$.payload.user.id", "42");
+
+        assertEquals(FilterRequestMatchPattern.Target.PAYLOAD_TREE, pattern.getTarget());
+        assertTrue(matches(pattern, REQUEST));
+        // the match document has the body as a string, nothing below it
+        assertFalse(pattern.isMatch(new RequestMatchContext(REQUEST).getRequestDocument()));
+        assertTrue(matches(compile("$.payload.items[0].sku", "A\\d"), REQUEST));
+        assertFalse(matches(compile("$.payload.items[0].sku", "B.*"), REQUEST));
+        assertFalse(matches(pattern, NO_BODY));
+    }
+
+    private static void assertSameAsJsonPath(String jsonPath, String matchPattern, FilterRequestMatchPattern.Target target) {
+        FilterRequestMatchPattern pattern = compile(jsonPath, matchPattern);
+
+        assertEquals(target, pattern.getTarget(), jsonPath);
+        for (HttpRequestInfo request : new HttpRequestInfo[]{REQUEST, NO_BODY}) {
+            DocumentContext document = new RequestMatchContext(request).getRequestDocument();
+
+            assertEquals(pattern.isMatch(document), matches(pattern, request), jsonPath + " ~ " + matchPattern + " on " + request.getUri());
+        }
+    }
+
+    private static boolean matches(FilterRequestMatchPattern pattern, HttpRequestInfo request) {
+        FilterRequest filterRequest = new FilterRequest();
+        filterRequest.addPattern(pattern);
+        return filterRequest.isMatch(new RequestMatchContext(request));
+    }
+
+    private static FilterRequestMatchPattern compile(String jsonPath, String matchPattern) {
+        return FilterRequestMatchPattern.builder().jsonPath(jsonPath).matchPattern(matchPattern).build();
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.tontu89.debugserverlib.utils;
+
+import io.github.tontu89.debugserverlib.model.FileSyncRequest;
+import io.github.tontu89.debugserverlib.model.FileSyncResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSyncUtilsTest {
+    private static final int BLOCK_SIZE = 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void unchangedFileSendsNothing() throws IOException {
+        byte[] local = randomBytes(10 * BLOCK_SIZE + 100, 1);
+
+        FileSyncResponse response = FileSyncUtils.diff(local.clone(), requestFor(local));
+
+        assertTrue(response.isUnchanged());
+        assertEquals(DigestUtils.sha256Hex(local), response.getSha256());
+    }
+
+    @Test
+    void shiftedContentIsRebuiltFromBlocks() throws IOException {
+        byte[] local = randomBytes(20 * BLOCK_SIZE, 2);
+        byte[] server = concat(randomBytes(7, 3), local);
+
+        FileSyncResponse response = roundTrip(local, server);
+
+        assertEquals(7, literalBytes(response));
+    }
+
+    @Test
+    void insertedAndDeletedBlocksAreRebuilt() throws IOException {
+        byte[] local = randomBytes(20 * BLOCK_SIZE, 4);
+        byte[] server = concat(
+                Arrays.copyOfRange(local, 0, 5 * BLOCK_SIZE),
+                randomBytes(BLOCK_SIZE + 333, 5),
+                // blocks 5 and 6 deleted
+                Arrays.copyOfRange(local, 7 * BLOCK_SIZE, 20 * BLOCK_SIZE));
+
+        FileSyncResponse response = roundTrip(local, server);
+
+        assertEquals(BLOCK_SIZE + 333, literalBytes(response));
+    }
+
+    @Test
+    void changedBytesAndTrailingPartialBlockGoAsLiterals() throws IOException {
+        byte[] local = randomBytes(8 * BLOCK_SIZE + 500, 6);
+        byte[] server = local.clone();
+        server[3 * BLOCK_SIZE + 10] ^= 1;
+
+        FileSyncResponse response = roundTrip(local, server);
+
+        // the changed block and the partial block the agent never sent a checksum of
+        assertEquals(BLOCK_SIZE + 500, literalBytes(response));
+    }
+
+    @Test
+    void moreBlocksThanTheLocalCopyHasAreNotNeeded() throws IOException {
+        byte[] local = randomBytes(3 * BLOCK_SIZE, 7);
+        byte[] server = concat(local, local, Arrays.copyOfRange(local, BLOCK_SIZE, 2 * BLOCK_SIZE));
+
+        FileSyncResponse response = roundTrip(local, server);
+
+        assertEquals(0, literalBytes(response));
+    }
+
+    private FileSyncResponse roundTrip(byte[] local, byte[] server) throws IOException {
+        FileSyncResponse response = FileSyncUtils.diff(server, requestFor(local));
+
+        assertEquals(server.length, response.getLength());
+        assertEquals(DigestUtils.sha256Hex(server), response.getSha256());
+        assertArrayEquals(server, rebuild(local, response));
+        return response;
+    }
+
+    private FileSyncRequest requestFor(byte[] local) throws IOException {
+        Path file = Files.write(this.tempDir.resolve("local.bin"), local);
+
+        return FileSyncRequest.builder()
+                .sha256(FileSyncUtils.sha256(file))
+                .blockSize(BLOCK_SIZE)
+                .blocks(FileSyncUtils.blockChecksums(file, BLOCK_SIZE))
+                .build();
+    }
+
+    /**
+     * What the agent does with the answer
+     */
+    private static byte[] rebuild(byte[] local, FileSyncResponse response) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (FileSyncResponse.Segment segment : response.getSegments()) {
+            if (segment.getData() != null) {
+                out.writeBytes(segment.getData());
+            } else {
+                out.write(local, segment.getBlockIndex() * BLOCK_SIZE, segment.getBlockCount() * BLOCK_SIZE);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int literalBytes(FileSyncResponse response) {
+        return response.getSegments().stream()
+                .filter(segment -> segment.getData() != null)
+                .mapToInt(segment -> segment.getData().length)
+                .sum();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}